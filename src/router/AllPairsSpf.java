@@ -0,0 +1,187 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * AllPairsSpf.java
+ *
+ * Distance and next hop matrix between all routers of a topology
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Runs one SPF from each router of a topology in parallel and keeps the
+ * results in a distance matrix and a next hop matrix
+ */
+public class AllPairsSpf {
+
+    /** Number of origins computed sequentially by each task */
+    private final static int TASK_ORIGINS= 4;
+
+    /** Topology used in the computation */
+    private final Topology topo;
+    /** Router names, sorted; the position is the matrix index */
+    private final char[] names;
+    /** Distance from names[i] to names[j] at i*n+j; Router.INFINITY if unreachable */
+    private final int[] dist;
+    /** First next hop from names[i] to names[j] at i*n+j; ' ' if unreachable */
+    private final char[] next;
+
+    /**
+     * Constructor - run the SPF from all routers using the common pool
+     * @param topo  topology snapshot
+     */
+    public AllPairsSpf(Topology topo) {
+        this(topo, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor - run the SPF from all routers
+     * @param topo  topology snapshot
+     * @param pool  pool where the SPF runs
+     */
+    public AllPairsSpf(Topology topo, ForkJoinPool pool) {
+        this.topo= topo;
+        TreeSet<Character> set= new TreeSet<>(topo.nodes());
+        names= new char[set.size()];
+        int i= 0;
+        for (char c : set) {
+            names[i++]= c;
+        }
+        int n= names.length;
+        dist= new int[n*n];
+        next= new char[n*n];
+        Arrays.fill(dist, Router.INFINITY);
+        Arrays.fill(next, ' ');
+        pool.invoke(new SpfTask(0, n));
+    }
+
+    /**
+     * Task that runs the SPF from the routers in [lo, hi), splitting the
+     * range while it is large
+     */
+    private class SpfTask extends RecursiveAction {
+        private static final long serialVersionUID= 1L;
+        private final int lo, hi;
+
+        SpfTask(int lo, int hi) {
+            this.lo= lo;
+            this.hi= hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > TASK_ORIGINS) {
+                int mid= (lo + hi) >>> 1;
+                invokeAll(new SpfTask(lo, mid), new SpfTask(mid, hi));
+                return;
+            }
+            for (int i= lo; i<hi; i++) {
+                fill_row(i);
+            }
+        }
+    }
+
+    /**
+     * Run the SPF from names[i] and fill row i of the matrices
+     * @param i  origin index
+     */
+    private void fill_row(int i) {
+        int n= names.length;
+        RoutingTable tab= topo.spf(names[i]);
+        for (RouteEntry re : tab.get_routeset()) {
+            int j= index(re.dest);
+            if (j < 0)
+                continue;   // Router without a vector
+            dist[i*n+j]= re.dist;
+            next[i*n+j]= (names[i] == re.dest) ? re.dest : re.next_hop;
+        }
+    }
+
+    /**
+     * Return the matrix index of a router
+     * @param name  router name
+     * @return index, or a negative value if unknown
+     */
+    public int index(char name) {
+        return Arrays.binarySearch(names, name);
+    }
+
+    /**
+     * Return the routers in the matrix, sorted
+     * @return router names
+     */
+    public char[] names() {
+        return names.clone();
+    }
+
+    /**
+     * Return the distance between two routers
+     * @param from  origin
+     * @param to    destination
+     * @return distance, or Router.INFINITY if unreachable or unknown
+     */
+    public int dist(char from, char to) {
+        int i= index(from), j= index(to);
+        if ((i < 0) || (j < 0))
+            return Router.INFINITY;
+        return dist[i*names.length+j];
+    }
+
+    /**
+     * Return the next hop from a router to another
+     * @param from  origin
+     * @param to    destination
+     * @return next hop, or ' ' if unreachable or unknown
+     */
+    public char next_hop(char from, char to) {
+        int i= index(from), j= index(to);
+        if ((i < 0) || (j < 0))
+            return ' ';
+        return next[i*names.length+j];
+    }
+
+    /**
+     * Compare the routes to the routers in a routing table computed by a
+     * router (e.g. Routing.rtab) with the row of that router in the matrix
+     * @param origin  router that computed the table
+     * @param tab     routing table
+     * @param dests   destinations compared, or null for all the routers;
+     *  routes learnt from ABR summaries are not in the matrix
+     * @return list with the destinations that differ, as strings; empty 
+     *  if the table matches
+     */
+    public ArrayList<String> check_table(char origin, RoutingTable tab, Set<Character> dests) {
+        ArrayList<String> errors= new ArrayList<>();
+        int i= index(origin);
+        if ((i < 0) || (tab == null) || !tab.is_valid()) {
+            errors.add("No routes from "+Router.name_str(origin));
+            return errors;
+        }
+        int n= names.length;
+        for (int j= 0; j<n; j++) {
+            if ((i == j) || ((dests != null) && !dests.contains(names[j])))
+                continue;
+            RouteEntry re= tab.get_RouteEntry(names[j]);
+            int d= dist[i*n+j];
+            int td= ((re == null) || (re.next_hop == ' ')) ? Router.INFINITY : re.dist;
+            if (td != d) {
+                errors.add(Router.name_str(origin)+"->"+Router.name_str(names[j])
+                        +": distance "+td+" != "+d);
+            } else if ((d < Router.INFINITY) && 
+                    (Arrays.binarySearch(re.next_hops, next[i*n+j]) < 0)) {
+                errors.add(Router.name_str(origin)+"->"+Router.name_str(names[j])
+                        +": next hop "+Router.name_str(next[i*n+j])
+                        +" not in "+new String(re.next_hops));
+            }
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * Area.java
+ *
+ * Holds the link state database of one routing area
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Link state information of one area: the vectors flooded inside it and
+ * the last local vector announced to it
+ */
+public class Area {
+
+    /** Area number; Routing.BACKBONE is the backbone */
+    public final int id;
+    /** Vectors received from the routers of the area (RouterInfo); written 
+     *  by the socket daemons while the routing timers read it */
+    public final ConcurrentHashMap<Character, RouterInfo> map;
+    /** Last local vector announced in the area, base of the next ROUTE delta */
+    public Entry[] last_vec;
+    /** Number of local ROUTE announcements sent to the area */
+    public int route_cnt;
+
+    /**
+     * Constructor - create an empty area
+     * @param id  area number
+     */
+    public Area(int id) {
+        this.id= id;
+        this.map= new ConcurrentHashMap<>();
+        this.last_vec= null;
+        this.route_cnt= 0;
+    }
+
+    /**
+     * Check if a router belongs to the area, i.e. if its vector is known
+     * @param name  router name
+     * @return true if a valid vector was received from it
+     */
+    public boolean has_router(char name) {
+        RouterInfo ri= map.get(name);
+        return (ri != null) && ri.vec_valid();
+    }
+
+    /**
+     * Return the last valid vector received from a router
+     * @param name  router name
+     * @return the Entry vector, or null if unknown
+     */
+    public Entry[] vec(char name) {
+        RouterInfo ri= map.get(name);
+        return (ri != null) ? ri.valid_vec() : null;
+    }
+
+    /**
+     * Return the groups with members in the area, announced in the
+     * vectors with distance Router.GROUP_DIST; names of the routers of the
+     * area are not groups
+     * @return set of group addresses
+     */
+    public HashSet<Character> groups() {
+        HashSet<Character> aux= new HashSet<>();
+        for (RouterInfo ri : map.values()) {
+            Entry[] v= ri.valid_vec();
+            if (v == null)
+                continue;
+            for (Entry e : v) {
+                if ((e.dist == Router.GROUP_DIST) && !has_router(e.dest))
+                    aux.add(e.dest);
+            }
+        }
+        return aux;
+    }
+
+    /**
+     * Return a string with the area number
+     * @return string with the area number
+     */
+    @Override
+    public String toString() {
+        return (id == Routing.BACKBONE) ? "backbone" : "area "+id;
+    }
+}
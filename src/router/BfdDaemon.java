@@ -0,0 +1,162 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * BfdDaemon.java
+ *
+ * Thread that runs the fast link failure detection sessions
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread that sends BFD probes to all neighbours and detects the
+ * neighbours that stopped sending them
+ */
+public class BfdDaemon extends Thread {
+        volatile boolean keepRunning= true;
+        Router win;
+        DatagramSocket ds;
+        NeighbourList neig;
+        /** Local router name */
+        char local_name;
+        /** Probe transmission interval (ms) */
+        int interval;
+        /** Number of probes missed before declaring the link down */
+        int multiplier;
+        /** Probes received, waiting to be handled by this thread */
+        private final LinkedBlockingQueue<DatagramPacket> rx= 
+                new LinkedBlockingQueue<>(MAX_RX);
+        /** Maximum number of probes waiting to be handled */
+        public final static int MAX_RX= 256;
+
+        // Constructor
+        BfdDaemon(Router win, DatagramSocket ds, NeighbourList neig,
+                char local_name, int interval, int multiplier) {
+            this.win= win;
+            this.local_name= local_name;
+            this.ds= ds;
+            this.neig= neig;
+            this.interval= interval;
+            this.multiplier= multiplier;
+            setDaemon(true);
+            setPriority(Thread.MAX_PRIORITY);
+        }
+
+        // Thread main function
+        @Override
+        public void run() {
+            long next= System.currentTimeMillis();
+            while (keepRunning) {
+                long now= System.currentTimeMillis();
+                for (Neighbour pt : neig.snapshot()) {
+                    send_probe(pt);
+                    if (pt.bfd_expired(now, (long)interval*multiplier)) {
+                        final char name= pt.Name();
+                        // Routing runs in the event thread, not here
+                        javax.swing.SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                win.Log("BFD session to "+Router.name_str(name)+" down\n");
+                                win.neighbour_lost(name);
+                            }
+                        });
+                    }
+                }
+                next+= interval;
+                if (next < System.currentTimeMillis()) {
+                    // Late - do not send bursts to catch up
+                    next= System.currentTimeMillis();
+                }
+                // Handle the probes received until the next transmission
+                long delay;
+                while (keepRunning && ((delay= next - System.currentTimeMillis()) > 0)) {
+                    try {
+                        DatagramPacket dp= rx.poll(delay, TimeUnit.MILLISECONDS);
+                        if (dp != null)
+                            handle_probe(dp);
+                    }
+                    catch (InterruptedException e) {
+                        // Stopped or woken up
+                    }
+                }
+            }
+        }
+
+        /**
+         * Queue a BFD probe received; it is handled by this thread, so 
+         * that the routing processing does not delay it
+         * @param dp  datagram packet, not reused by the caller
+         */
+        public void receive(DatagramPacket dp) {
+            if (!rx.offer(dp))
+                win.Log2("BFD receive queue full - probe dropped\n");
+        }
+
+        /**
+         * Update the session of the neighbour that sent a probe
+         * @param dp  datagram packet with the probe
+         */
+        private void handle_probe(DatagramPacket dp) {
+            if (dp.getLength() != 4) {
+                win.Log("Invalid BFD probe length ("+dp.getLength()+")\n");
+                return;
+            }
+            DataInputStream dis= new DataInputStream(new ByteArrayInputStream(
+                    dp.getData(), dp.getOffset(), dp.getLength()));
+            try {
+                dis.readByte();     // PKT_BFD
+                char sender= dis.readChar();
+                int remote= dis.readUnsignedByte();
+                if (remote > Neighbour.BFD_UP) {
+                    win.Log("Invalid BFD state ("+remote+")\n");
+                    return;
+                }
+                // The probe must come from the neighbour's own address
+                Neighbour pt= neig.locate_neig(
+                        Resolver.host_address(dp.getAddress()), dp.getPort());
+                if ((pt == null) || (pt.Name() != sender)) {
+                    win.Log2("BFD probe from unknown neighbour "+
+                            Router.name_str(sender)+" ("+dp.getSocketAddress()+") - ignored\n");
+                    return;
+                }
+                pt.bfd_received(remote);
+            }
+            catch (IOException e) {
+                win.Log("BFD probe too short\n");
+            }
+        }
+
+        /**
+         * Send a BFD probe to a neighbour
+         * @param pt  neighbour
+         */
+        private void send_probe(Neighbour pt) {
+            ByteArrayOutputStream os= new ByteArrayOutputStream(4);
+            DataOutputStream dos= new DataOutputStream(os);
+            try {
+                dos.writeByte(Router.PKT_BFD);
+                dos.writeChar(local_name);
+                // Local state of the session
+                dos.writeByte(pt.bfd_state());
+                pt.send_packet(ds, os);
+            }
+            catch (IOException e) {
+                if (keepRunning)
+                    win.Log2("Error sending BFD probe: "+e+"\n");
+            }
+        }
+
+        // Stops thread
+        public void stopRunning() {
+            keepRunning= false;
+            this.interrupt();
+        }
+
+}
@@ -12,6 +12,7 @@
 package router;
 
 import java.io.*;
+import java.util.*;
 
 
 /** 
@@ -82,7 +83,7 @@ public class Entry {
      */
     @Override
     public String toString() {
-        return "("+dest+" , "+dist+"])";
+        return "("+Router.name_str(dest)+" , "+dist+"])";
     }
 
     /**
@@ -128,6 +129,50 @@ public class Entry {
         return (cnt==vec1.length);
     }
     
+    /**
+     * Build the changes needed to turn vec1 into vec2: new or modified
+     * entries of vec2, and the entries removed from vec1 with distance 0
+     * @param vec1 old vector
+     * @param vec2 new vector
+     * @return vector with the changes
+     */
+    public static Entry[] diff_Entry_vec(Entry[] vec1, Entry[] vec2) {
+        HashMap<Character,Entry> old= new HashMap<>();
+        for (Entry e1: vec1) {
+            old.put(e1.dest, e1);
+        }
+        ArrayList<Entry> aux= new ArrayList<>();
+        for (Entry e2: vec2) {
+            Entry e1= old.remove(e2.dest);
+            if ((e1 == null) || !e1.equals_to(e2))
+                aux.add(new Entry(e2));
+        }
+        for (Entry e1: old.values()) {
+            aux.add(new Entry(e1.dest, 0));     // Removed
+        }
+        return aux.toArray(new Entry[aux.size()]);
+    }
+
+    /**
+     * Apply the changes built by diff_Entry_vec to a vector
+     * @param vec   vector
+     * @param delta changes; distance 0 removes the destination
+     * @return the new vector
+     */
+    public static Entry[] apply_Entry_delta(Entry[] vec, Entry[] delta) {
+        LinkedHashMap<Character,Entry> aux= new LinkedHashMap<>();
+        for (Entry e: vec) {
+            aux.put(e.dest, e);
+        }
+        for (Entry e: delta) {
+            if (e.dist == 0)
+                aux.remove(e.dest);
+            else
+                aux.put(e.dest, e);
+        }
+        return aux.values().toArray(new Entry[aux.size()]);
+    }
+    
     /**
      * Write the Entry content to a DataOutputStream
      * @param dos  output stream
@@ -145,8 +190,8 @@ public class Entry {
      */
     final public void readEntry(DataInputStream dis) throws java.io.IOException {
         dest= dis.readChar();
-        if (!Character.isUpperCase(dest))
-            throw new IOException("Invalid address '"+dest+"'");
+        if (!Router.is_valid_name(dest))
+            throw new IOException("Invalid address '"+(int)dest+"'");
         dist= dis.readInt();
         if ((dist<0) || (dist>Router.MAX_DISTANCE))
             throw new IOException("Invalid distance '"+dist+"'");
@@ -0,0 +1,104 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * KShortestPaths.java
+ *
+ * K shortest loopless paths (Yen's algorithm) over a topology snapshot
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Computes the K shortest loopless paths between routers with Yen's
+ * algorithm, using the Dijkstra algorithm of the topology for the spur paths
+ */
+public class KShortestPaths {
+
+    /** Topology used in the computations */
+    private final Topology topo;
+
+    /**
+     * Constructor - create a new instance of KShortestPaths
+     * @param topo  topology snapshot
+     */
+    public KShortestPaths(Topology topo) {
+        this.topo= topo;
+    }
+
+    /**
+     * Compute the k shortest loopless paths from origin to dest
+     * @param origin  origin address
+     * @param dest    destination address
+     * @param k       maximum number of paths
+     * @return the paths sorted by cost; empty if dest is not reachable
+     */
+    public ArrayList<Path> paths(char origin, char dest, int k) {
+        ArrayList<Path> a= new ArrayList<>();
+        Path first= topo.shortest_path(origin, dest, 
+                Collections.<Character>emptySet(), Collections.<Integer>emptySet());
+        if (first == null) {
+            return a;
+        }
+        a.add(first);
+        // Candidates, sorted by cost and then by name
+        TreeMap<String, Path> b= new TreeMap<>();
+        HashSet<String> seen= new HashSet<>();
+        seen.add(first.nodes);
+        while (a.size() < k) {
+            Path prev= a.get(a.size()-1);
+            int root_cost= 0;
+            for (int i= 0; i<prev.hops(); i++) {
+                char spur= prev.nodes.charAt(i);
+                String root= prev.nodes.substring(0, i+1);
+                // Links leaving the root already used by the paths found
+                HashSet<Integer> links= new HashSet<>();
+                for (Path p : a) {
+                    if ((p.hops() > i) && p.nodes.startsWith(root))
+                        links.add(Topology.link_key(spur, p.nodes.charAt(i+1)));
+                }
+                // Root nodes cannot be visited again
+                HashSet<Character> nodes= new HashSet<>();
+                for (int j= 0; j<i; j++) {
+                    nodes.add(root.charAt(j));
+                }
+                Path spur_path= topo.shortest_path(spur, dest, nodes, links);
+                if (spur_path != null) {
+                    Path p= new Path(root.substring(0, i) + spur_path.nodes,
+                            Routing.add_dist(root_cost, spur_path.cost));
+                    if (seen.add(p.nodes)) {
+                        b.put(String.format("%010d", p.cost) + p.nodes, p);
+                    }
+                }
+                root_cost= Routing.add_dist(root_cost, 
+                        topo.link_dist(spur, prev.nodes.charAt(i+1)));
+            }
+            if (b.isEmpty()) {
+                break;
+            }
+            a.add(b.pollFirstEntry().getValue());
+        }
+        return a;
+    }
+
+    /**
+     * Compute the k shortest loopless paths from origin to several 
+     * destinations; destinations are handled in parallel
+     * @param origin  origin address
+     * @param dests   destination addresses
+     * @param k       maximum number of paths for each destination
+     * @return the paths to each destination
+     */
+    public Map<Character, ArrayList<Path>> paths(final char origin, 
+            Collection<Character> dests, final int k) {
+        final ConcurrentHashMap<Character, ArrayList<Path>> res= new ConcurrentHashMap<>();
+        dests.parallelStream().forEach(dest -> res.put(dest, paths(origin, dest, k)));
+        return res;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * LocalIdentity.java
+ *
+ * Local name and group addresses of the router
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.BitSet;
+
+
+/**
+ * Local name and group memberships, parsed once from the configuration
+ * fields; it is not changed after created, so it can be shared between 
+ * threads
+ */
+public final class LocalIdentity {
+
+    /** Local name; '*' if invalid */
+    public final char name;
+    /** Group memberships, one bit per address */
+    private final BitSet groups;
+    /** Group addresses, in the order written */
+    private final char[] group_list;
+
+    /**
+     * Constructor - parse the local name and the group addresses
+     * @param name_str    local name, as a letter or '#'number
+     * @param groups_str  group addresses, letters or '#'numbers, optionally 
+     *  separated by spaces or commas
+     */
+    public LocalIdentity(String name_str, String groups_str) {
+        char nm= Router.parse_name(name_str);
+        this.name= (nm != ' ') ? nm : '*';
+        this.groups= new BitSet();
+        StringBuilder sb= new StringBuilder();
+        int i= 0;
+        while (i < groups_str.length()) {
+            char g= groups_str.charAt(i++);
+            if (g == '#') {
+                int j= i;
+                while ((j < groups_str.length()) && Character.isDigit(groups_str.charAt(j)))
+                    j++;
+                g= Router.parse_name(groups_str.substring(i-1, j));
+                i= j;
+            }
+            if (Router.is_valid_name(g) && !groups.get(g)) {
+                groups.set(g);
+                sb.append(g);
+            }
+        }
+        this.group_list= sb.toString().toCharArray();
+    }
+
+    /**
+     * Test if nm is the local name
+     * @param nm  address
+     * @return true if it is the local name
+     */
+    public boolean is_local_name(char nm) {
+        return nm == name;
+    }
+
+    /**
+     * Test if nm is a local group address
+     * @param nm  address
+     * @return true if it is a local group
+     */
+    public boolean is_local_group(char nm) {
+        return groups.get(nm);
+    }
+
+    /**
+     * Test if packets to nm are delivered locally
+     * @param nm  address
+     * @return true if it is the local name or a local group
+     */
+    public boolean is_local(char nm) {
+        return (nm == name) || groups.get(nm);
+    }
+
+    /**
+     * Return the local group addresses
+     * @return array with the group addresses
+     */
+    public char[] groups() {
+        return group_list.clone();
+    }
+}
@@ -103,19 +103,23 @@ public class MulticastDaemon extends Thread {
                             = new ByteArrayInputStream(buf, 0, dp.getLength());
                     DataInputStream dis = new DataInputStream(BAis);
                     System.out.println("Received mpacket (" + dp.getLength()
-                            + ") from " + dp.getAddress().getHostAddress()
+                            + ") from " + Resolver.host_address(dp.getAddress())
                             + ":" + dp.getPort());
                     byte code;
                     char sender;
                     try {
                         code = dis.readByte();     // read code
                         sender = dis.readChar();   // read sender id
-                        String ip = dp.getAddress().getHostAddress();  // Get sender address
+                        String ip = Resolver.host_address(dp.getAddress());  // Get sender address
                         switch (code) {
                             case Router.PKT_ROUTE:
                                 route.process_multicast_ROUTE(sender,
                                         dp, ip, dis);
                                 break;
+                            case Router.PKT_ROUTE_DELTA:
+                                route.process_multicast_ROUTE_DELTA(sender,
+                                        dp, ip, dis);
+                                break;
                             default:
                                 win.Log("Invalid mpacket type: " + code + "\n");
                         }
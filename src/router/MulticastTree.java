@@ -0,0 +1,94 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * MulticastTree.java
+ *
+ * Branch of a source-rooted multicast distribution tree at one router
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.*;
+
+
+/**
+ * Part of the shortest path tree from a source to the members of a group
+ * seen by one router: the upstream router and the downstream branches
+ */
+public class MulticastTree {
+
+    /** Source of the packets */
+    public final char source;
+    /** Group address */
+    public final char group;
+    /** Router the packets come from; ' ' at the source or off the tree */
+    public final char upstream;
+    /** Neighbours the packets are replicated to, sorted */
+    public final char[] children;
+
+    /**
+     * Constructor - create a new instance of MulticastTree
+     * @param source    source address
+     * @param group     group address
+     * @param upstream  upstream router
+     * @param children  downstream neighbours
+     */
+    public MulticastTree(char source, char group, char upstream, char[] children) {
+        this.source= source;
+        this.group= group;
+        this.upstream= upstream;
+        this.children= children;
+    }
+
+    /**
+     * Compute the branch of the tree from source to the members of group
+     * at router local; all routers compute the same tree from the same
+     * topology
+     * @param topo    topology snapshot
+     * @param local   router where the branch is computed
+     * @param source  source address
+     * @param group   group address
+     * @return the branch; without children if local is off the tree
+     */
+    public static MulticastTree compute(Topology topo, char local, char source, char group) {
+        HashMap<Character, Character> parent= topo.spt(source);
+        // Routers in the paths from the source to each member
+        HashSet<Character> on_tree= new HashSet<>();
+        for (char m : topo.members(group)) {
+            if ((m != source) && !parent.containsKey(m))
+                continue;   // Unreachable
+            while ((m != source) && on_tree.add(m)) {
+                m= parent.get(m);
+            }
+        }
+        TreeSet<Character> aux= new TreeSet<>();
+        for (char c : on_tree) {
+            if (parent.get(c) == local)
+                aux.add(c);
+        }
+        char[] children= new char[aux.size()];
+        int i= 0;
+        for (char c : aux) {
+            children[i++]= c;
+        }
+        Character up= parent.get(local);
+        return new MulticastTree(source, group, (up != null) ? up : ' ', children);
+    }
+
+    /**
+     * Return a string with the branch contents
+     * @return string with the branch contents
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb= new StringBuilder();
+        for (char c : children) {
+            sb.append(sb.length()>0 ? "," : "").append(Router.name_str(c));
+        }
+        return "("+Router.name_str(source)+","+Router.name_str(group)+
+                ", upstream="+Router.name_str(upstream)+", children="+sb+")";
+    }
+}
@@ -17,7 +17,7 @@ import java.util.*;
 
 
 public class Neighbour {
-    /** neigbour's name (address) [A,Z] */
+    /** neigbour's name (address) [A,Z] or a wide name */
     public char name;
     /** IP address of the neighbour */
     public String ip;
@@ -25,14 +25,61 @@ public class Neighbour {
     public int port;
     /** distance to the neighbour */
     public int dist;
-    /** address of the neighbour, includes IP+port */
+    /** address of the neighbour */
     public InetAddress netip;
+    /** address of the neighbour, includes IP+port; resolved again when
+     *  the Resolver cache changes */
+    public InetSocketAddress sock_addr;
+    /** Resolver generation when netip and sock_addr were resolved */
+    private int resolver_gen;
     
     // Vector-distance protocols specific data
     public Entry[] vec;     // Neighbor vector
     public Date vec_date;   // Neighbor vector reception date
     public long vec_TTL;    // TTL in miliseconds
     
+    // Link-state flooding specific data
+    /** Records waiting to be flooded to the neighbour */
+    private final ArrayList<byte[]> flood_queue= new ArrayList<>();
+    /** Number of bytes in flood_queue */
+    private int flood_len= 0;
+    /** Records flooded and not acknowledged yet, by LSA key */
+    private final LinkedHashMap<Long,Rxmt> rxmt_list= new LinkedHashMap<>();
+    /** Keys of the records received from the neighbour, to acknowledge */
+    private final ArrayList<Long> ack_queue= new ArrayList<>();
+    /** DBD retransmissions left while the neighbour does not answer */
+    private int sync_left= 0;
+    /** Time of the last DBD transmission (ms) */
+    private long sync_time= 0;
+    
+    // Fast failure detection (BFD) specific data
+    /** BFD session states, as sent in the probes */
+    public final static int BFD_DOWN= 0, BFD_INIT= 1, BFD_UP= 2;
+    /** Time when the last BFD probe was received (ms) */
+    private long bfd_rx= 0;
+    /** State of the BFD session */
+    private int bfd_state= BFD_DOWN;
+    /** True if the neighbour signalled that an up session went down */
+    private boolean bfd_lost= false;
+    
+    /**
+     * Flooded record waiting for acknowledgement
+     */
+    private static final class Rxmt {
+        /** record contents */
+        final byte[] rec;
+        /** time of the last transmission (ms) */
+        long time;
+        /** number of retransmissions */
+        int cnt;
+        
+        Rxmt(byte[] rec, long time) {
+            this.rec= rec;
+            this.time= time;
+            this.cnt= 0;
+        }
+    }
+    
     /**
      * Return the name of the neighbour
      * @return the character with the name
@@ -58,6 +105,22 @@ public class Neighbour {
      * @return InetAddress object
      */    
     public InetAddress Netip() { return netip; }
+    /**
+     * Return the socket address (IP+port) of the neighbour
+     * @return InetSocketAddress object
+     */    
+    public InetSocketAddress Sock_addr() {
+        if ((ip != null) && (resolver_gen != Resolver.generation())) {
+            // A cached resolution changed: resolve the address again
+            resolver_gen= Resolver.generation();
+            InetAddress a= Resolver.resolve(ip);
+            if (a != null) {
+                netip= a;
+                sock_addr= new InetSocketAddress(a, port);
+            }
+        }
+        return sock_addr;
+    }
     
     /** Vector-distance protocol specific function:
      *          Returns a vector, if it exists
@@ -72,10 +135,8 @@ public class Neighbour {
      */
     private boolean parseName(String name) {
         // Clear name
-        if (name.length() != 1)
-            return false;
-        char c= name.charAt(0);
-        if (!Character.isUpperCase (c))
+        char c= Router.parse_name(name);
+        if (c == ' ')
             return false;
         this.name= c;
         return true;
@@ -102,6 +163,7 @@ public class Neighbour {
             this.name= name;
             this.port= port;
             this.dist= distance;
+            this.sock_addr= new InetSocketAddress(netip, port);
         } else
             this.ip= null;
     }
@@ -114,6 +176,8 @@ public class Neighbour {
         this.name= src.name;
         this.ip= src.ip;
         this.netip= src.netip;
+        this.sock_addr= src.sock_addr;
+        this.resolver_gen= src.resolver_gen;
         this.port= src.port;
         this.dist= src.dist;
     }
@@ -131,6 +195,7 @@ public class Neighbour {
             this.name= name;
             this.port= port;
             this.dist= distance;
+            this.sock_addr= new InetSocketAddress(netip, port);
         } else
             clear();
     }
@@ -157,6 +222,7 @@ public class Neighbour {
         this.name= ' ';
         this.ip= null;
         this.netip= null;
+        this.sock_addr= null;
         this.port= 0;
         this.dist= Router.MAX_DISTANCE;
         this.vec= null;
@@ -169,14 +235,9 @@ public class Neighbour {
      * @return true if is valid, false otherwise
      */
     private boolean test_IP() {
-        try {
-            netip= InetAddress.getByName(ip);
-            return true;
-        }
-        catch (UnknownHostException e) {
-            netip= null;
-            return false;
-        }
+        resolver_gen= Resolver.generation();
+        netip= Resolver.resolve(ip);
+        return (netip != null);
     }
 
     /**
@@ -199,14 +260,19 @@ public class Neighbour {
      */
     public void send_packet(DatagramSocket ds, 
                                 DatagramPacket dp) throws IOException {
-        try {
-            dp.setAddress(this.netip);
-            dp.setPort(this.port);
-            ds.send(dp);
-        }
-        catch (IOException e) {
-            throw e;
-        }        
+        // dp may be shared by several senders: it is not modified
+        ds.send(new DatagramPacket(dp.getData(), dp.getOffset(), 
+                dp.getLength(), Sock_addr()));
+    }
+
+    /**
+     * Send a packet to the neighbour
+     * @param ds    datagram socket
+     * @param data  packet contents, not modified
+     * @throws IOException 
+     */
+    public void send_packet(DatagramSocket ds, byte[] data) throws IOException {
+        ds.send(new DatagramPacket(data, data.length, Sock_addr()));
     }
     
     /**
@@ -220,7 +286,7 @@ public class Neighbour {
         try {
             byte [] buffer = os.toByteArray();
             DatagramPacket dp= new DatagramPacket(buffer, buffer.length, 
-                this.netip, this.port);
+                Sock_addr());
             ds.send(dp);
         }
         catch (IOException e) {
@@ -228,6 +294,269 @@ public class Neighbour {
         }        
     }
     
+    /**
+     * Link-state specific: queue a packet to be flooded to the neighbour;
+     * queued packets are sent together by flush_flood and kept in the
+     * retransmission list until acknowledged
+     * @param rec  packet contents
+     * @param key  LSA key (Routing.lsa_key) of the record
+     * @return true if the queue reached Routing.MAX_BUNDLE_LEN
+     */
+    public synchronized boolean enqueue_flood(byte[] rec, long key) {
+        if (Routing.lsa_frag(key) != Routing.DELTA_FRAG) {
+            // A delta does not replace its base: the neighbour needs both
+            rxmt_drop_older(key);
+        }
+        rxmt_list.put(key, new Rxmt(rec, System.currentTimeMillis()));
+        return enqueue_packet(rec);
+    }
+
+    /**
+     * Link-state specific: queue a packet to be sent to the neighbour with 
+     * the flooded records, without waiting for acknowledgement
+     * @param rec  packet contents
+     * @return true if the queue reached Routing.MAX_BUNDLE_LEN
+     */
+    public synchronized boolean enqueue_packet(byte[] rec) {
+        flood_queue.add(rec);
+        flood_len+= 2 + rec.length;
+        return flood_len >= Routing.MAX_BUNDLE_LEN;
+    }
+
+    /**
+     * Link-state specific: remove from the retransmission list the records
+     * from the same origin as key with older sequence numbers
+     * @param key  LSA key (Routing.lsa_key) of the new record
+     */
+    private void rxmt_drop_older(long key) {
+        // Older instances from the same origin are no longer retransmitted
+        Iterator<Long> it= rxmt_list.keySet().iterator();
+        while (it.hasNext()) {
+            long k= it.next();
+            if ((Routing.lsa_origin(k) == Routing.lsa_origin(key)) && 
+                    (Routing.lsa_seq(k) < Routing.lsa_seq(key)))
+                it.remove();
+        }
+    }
+
+    /**
+     * Link-state specific: queue the acknowledgement of a record received
+     * from the neighbour; it is sent with the next flush_flood
+     * @param key  LSA key (Routing.lsa_key) of the record
+     */
+    public synchronized void enqueue_ack(long key) {
+        ack_queue.add(key);
+    }
+
+    /**
+     * Link-state specific: remove an acknowledged record from the 
+     * retransmission list
+     * @param key  LSA key (Routing.lsa_key) of the record
+     * @return true if the record was waiting for acknowledgement
+     */
+    public synchronized boolean ack(long key) {
+        return rxmt_list.remove(key) != null;
+    }
+
+    /**
+     * Link-state specific: queue again the records not acknowledged for
+     * more than 'interval' ms; records are dropped after Routing.RXMT_MAX
+     * retransmissions
+     * @param now       current time (ms)
+     * @param interval  retransmission interval (ms)
+     * @return true if records were queued
+     */
+    public synchronized boolean retransmit(long now, long interval) {
+        boolean queued= false;
+        Iterator<Rxmt> it= rxmt_list.values().iterator();
+        while (it.hasNext()) {
+            Rxmt r= it.next();
+            if (now - r.time < interval)
+                continue;
+            if (r.cnt >= Routing.RXMT_MAX) {
+                it.remove();
+                continue;
+            }
+            r.time= now;
+            r.cnt++;
+            flood_queue.add(r.rec);
+            flood_len+= 2 + r.rec.length;
+            queued= true;
+        }
+        return queued;
+    }
+
+    /**
+     * Link-state specific: the DBD summary was sent to the neighbour; it
+     * is sent again until the neighbour answers, up to Routing.RXMT_MAX
+     * times
+     * @param now   current time (ms)
+     */
+    public synchronized void sync_started(long now) {
+        sync_left= Routing.RXMT_MAX;
+        sync_time= now;
+    }
+
+    /**
+     * Link-state specific: a synchronization or flooding packet was 
+     * received from the neighbour, so it knows the local router
+     */
+    public synchronized void sync_answered() {
+        sync_left= 0;
+    }
+
+    /**
+     * Link-state specific: test if the DBD summary must be sent again
+     * @param now       current time (ms)
+     * @param interval  retransmission interval (ms)
+     * @return true if the DBD must be sent again
+     */
+    public synchronized boolean sync_retransmit(long now, long interval) {
+        if ((sync_left <= 0) || (now - sync_time < interval))
+            return false;
+        sync_left--;
+        sync_time= now;
+        return true;
+    }
+
+    /**
+     * Link-state specific: move the pending acknowledgements to ACK records
+     * at the head of the flooding queue
+     * @param win   main window object 
+     * @throws IOException 
+     */
+    private void queue_acks(Router win) throws IOException {
+        int max= (Routing.MAX_BUNDLE_LEN - 12) / 7;
+        ArrayList<byte[]> recs= new ArrayList<>();
+        for (int i= 0; i<ack_queue.size(); i+= max) {
+            int n= Math.min(max, ack_queue.size()-i);
+            ByteArrayOutputStream os= new ByteArrayOutputStream();
+            DataOutputStream dos= new DataOutputStream(os);
+            dos.writeByte(Router.PKT_ACK);
+            dos.writeChar(win.local_name());
+            dos.writeShort(n);
+            for (int j= i; j<i+n; j++) {
+                long key= ack_queue.get(j);
+                dos.writeChar(Routing.lsa_origin(key));
+                dos.writeInt(Routing.lsa_seq(key));
+                dos.writeByte(Routing.lsa_frag(key));
+            }
+            recs.add(os.toByteArray());
+        }
+        ack_queue.clear();
+        flood_queue.addAll(0, recs);
+    }
+
+    /**
+     * Link-state specific: send the packets and acknowledgements queued to
+     * the neighbour, packing
+     * several in one BUNDLE packet up to Routing.MAX_BUNDLE_LEN bytes
+     * @param out   outbound pipeline
+     * @param win   main window object 
+     * @return number of datagrams accepted by the pipeline
+     */
+    public synchronized int flush_flood(SendPipeline out, Router win) {
+        int sent= 0;
+        int i= 0;
+        if (!ack_queue.isEmpty()) {
+            try {
+                queue_acks(win);
+            }
+            catch (IOException e) {
+                win.Log("Error preparing ACK: "+e+"\n");
+            }
+        }
+        while (i < flood_queue.size()) {
+            // Select the records that fit in one bundle
+            int j= i;
+            int len= 5;
+            do {
+                len+= 2 + flood_queue.get(j).length;
+                j++;
+            } while ((j < flood_queue.size()) && 
+                    (len + 2 + flood_queue.get(j).length <= Routing.MAX_BUNDLE_LEN));
+            try {
+                if (j == i+1) {
+                    // A single record is sent as is
+                    byte[] rec= flood_queue.get(i);
+                    if (out.send(Sock_addr(), rec))
+                        sent++;
+                } else {
+                    ByteArrayOutputStream os= new ByteArrayOutputStream(len);
+                    DataOutputStream dos= new DataOutputStream(os);
+                    dos.writeByte(Router.PKT_BUNDLE);
+                    dos.writeChar(win.local_name());
+                    dos.writeShort(j-i);
+                    for (int k= i; k<j; k++) {
+                        dos.writeShort(flood_queue.get(k).length);
+                        dos.write(flood_queue.get(k));
+                    }
+                    if (out.send(Sock_addr(), os.toByteArray()))
+                        sent++;
+                }
+            }
+            catch (IOException e) {
+                win.Log("Error sending flooding bundle: "+e+"\n");
+            }
+            i= j;
+        }
+        flood_queue.clear();
+        flood_len= 0;
+        return sent;
+    }
+    
+    /**
+     * BFD specific: register the reception of a probe and run the three-way
+     * handshake; the session only goes up after the neighbour reports that
+     * it receives the local probes, so one-way links never go up
+     * @param remote  session state sent by the neighbour
+     */
+    public synchronized void bfd_received(int remote) {
+        bfd_rx= System.currentTimeMillis();
+        switch (bfd_state) {
+            case BFD_DOWN:
+                if (remote == BFD_DOWN)
+                    bfd_state= BFD_INIT;
+                else if (remote == BFD_INIT)
+                    bfd_state= BFD_UP;
+                break;
+            case BFD_INIT:
+                if (remote != BFD_DOWN)
+                    bfd_state= BFD_UP;
+                break;
+            case BFD_UP:
+                if (remote == BFD_DOWN) {
+                    // The neighbour stopped receiving the local probes
+                    bfd_state= BFD_DOWN;
+                    bfd_lost= true;
+                }
+                break;
+        }
+    }
+
+    /**
+     * BFD specific: return the state of the session
+     * @return BFD_DOWN, BFD_INIT or BFD_UP
+     */
+    public synchronized int bfd_state() { return bfd_state; }
+
+    /**
+     * BFD specific: test if the session went down, i.e. if no probe was
+     * received during the detection time or the neighbour signalled it
+     * @param now          current time (ms)
+     * @param detect_time  detection time (ms)
+     * @return true if the session was up and went down
+     */
+    public synchronized boolean bfd_expired(long now, long detect_time) {
+        if ((bfd_state != BFD_DOWN) && (now - bfd_rx > detect_time)) {
+            bfd_lost|= (bfd_state == BFD_UP);
+            bfd_state= BFD_DOWN;
+        }
+        boolean lost= bfd_lost;
+        bfd_lost= false;
+        return lost;
+    }
+    
     /**
      * Create a send a HELLO packet to the neighbour
      * @param ds    datagram socket
@@ -240,10 +569,12 @@ public class Neighbour {
         DataOutputStream dos= new DataOutputStream(os);
         try {
             dos.writeByte(Router.PKT_HELLO);
-            // name ('letter')
+            // name ('letter' or wide name)
             dos.writeChar(win.local_name());
             // Distance
             dos.writeInt(dist);
+            // Protocol version
+            dos.writeByte(Router.PROTOCOL_VERSION);
             send_packet(ds, os);
             win.HELLO_snt++;
             return true;
@@ -283,10 +614,10 @@ public class Neighbour {
      */
     @Override
     public String toString() {
-        String str= ""+name;
+        String str= Router.name_str(name);
         if (name == ' ')
             str= "INVALID";
-        return "("+name+" ; "+ip+" ; "+port+" ; "+dist+")";
+        return "("+str+" ; "+ip+" ; "+port+" ; "+dist+")";
     }
 
     /**
@@ -303,7 +634,7 @@ public class Neighbour {
             String _name= st.nextToken();
             if (!parseName(_name))
                 return false;
-            if (!_name.equals(""+name))
+            if (Router.parse_name(_name) != name)
                 return false;
             String _ip= st.nextToken();
             int _port= Integer.parseInt(st.nextToken());
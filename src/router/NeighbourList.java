@@ -15,27 +15,39 @@ import java.util.*;
 import java.net.*;
 import java.io.*;
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 
 
 public class NeighbourList {
     
-    /** Maximum number of neigbour objects in the list */
-    private int max_range= 0;
+    /** Minimum number of rows shown in the GUI table */
+    private final int min_rows;
     /** Reference to the main window of the GUI */
     private final Router win;
-    /** List of neighbour objects */
-    private final HashMap<String,Neighbour> list;
+    /** Neighbour objects indexed by name; grows with the highest name */
+    private Neighbour[] by_name;
+    /** Neighbour objects indexed by address (IP+port), in insertion order */
+    private final LinkedHashMap<InetSocketAddress,Neighbour> list;
+    /** Dead interval timers of the neighbours */
+    private final TimerWheel dead_timers;
+    /** Incremented each time a neighbour is added, removed or changes distance */
+    private volatile int generation= 0;
+    /** Resolver generation when the address index was built */
+    private int index_gen= Resolver.generation();
 
     
     /**
      * Constractor - create a new instance of NeighbourList
-     * @param max_range maximum number of neigbours in the list
+     * @param min_rows  minimum number of rows shown in the GUI table; the 
+     *                  list itself has no size limit
      * @param win       main window
      */
-    public NeighbourList(int max_range, Router win) {        
-        this.max_range= max_range;
+    public NeighbourList(int min_rows, Router win) {        
+        this.min_rows= min_rows;
         this.win= win;
-        list= new HashMap<>();
+        by_name= new Neighbour['Z'+1];
+        list= new LinkedHashMap<>();
+        dead_timers= new TimerWheel(64, Routing.HELLO_TICK);
     }
 
     /**
@@ -61,18 +73,29 @@ public class NeighbourList {
      * @param port      port number
      * @param distance  distance
      * @param ds        datagram socket
-     * @return true if new neighbour was created and added, false otherwise
+     * @return true if new neighbour was created and added or its distance
+     *  changed, false otherwise
      */
     public boolean add_neig(char name, String ip, int port, int distance, DatagramSocket ds) {
         char local_name= win.local_name();        
         boolean novo;
-        System.out.println("add_neig("+name+")");
+        Neighbour old;
         synchronized (this) {
-            if ((novo= !list.containsKey(""+name)) && (list.size()==max_range)) {
-                System.out.println("List is full\n");
+            old= get(name);
+        }
+        if ((old != null) && old.Ip().equals(ip) && (old.Port() == port)) {
+            // Known neighbour - keepalive
+            refresh_dead_timer(name);
+            if ((old.Dist() == distance) || (distance<1) || 
+                    (distance>=Router.GROUP_DIST)) {
                 return false;
             }
+            old.update_neigh(name, ip, port, distance);
+            changed();
+            return true;
         }
+        System.out.println("add_neig("+Router.name_str(name)+")");
+        novo= (old == null);
         Neighbour pt= locate_neig(ip, port);
         if (local_name == name) {
             System.out.println("Name equals local_name");
@@ -82,7 +105,7 @@ public class NeighbourList {
             System.out.println("Duplicated IP and port\n");
             return false;
         }
-        if ((distance<1) || (distance>Router.MAX_DISTANCE)) {
+        if ((distance<1) || (distance>=Router.GROUP_DIST)) {
             System.out.println("Invalid distance ("+distance+")");
             return false;
         }
@@ -94,8 +117,10 @@ public class NeighbourList {
         }
         synchronized (this) {
             // Adds or replaces a member of the table
-            list.put(""+name, pt);
+            put(pt);
         }
+        changed();
+        refresh_dead_timer(name);
         if (novo) // If not known
             pt.send_Hello(ds, win);
         return true;
@@ -110,13 +135,13 @@ public class NeighbourList {
      * @return true if updated the fields, false otherwise
      */
     public boolean update_neig(char name, String ip, int port, int distance) {
-        System.out.println("update_neig("+name+")");
+        System.out.println("update_neig("+Router.name_str(name)+")");
         Neighbour pt= locate_neig(ip, port);
         if (pt == null) {
             System.out.println("Inexistant Neighbour\n");
             return false;
         }
-        if ((distance<1) || (distance>Router.MAX_DISTANCE)) {
+        if ((distance<1) || (distance>=Router.GROUP_DIST)) {
             System.out.println("Invalid distance ("+distance+")");
             return false;
         }
@@ -130,6 +155,7 @@ public class NeighbourList {
         }
         // Prepare Neighbour entry
         pt.update_neigh(pt.Name(), ip, port, distance);
+        changed();
         return true;
     }    
     
@@ -143,23 +169,20 @@ public class NeighbourList {
     public boolean del_neig(char name, boolean send_msg, DatagramSocket ds) {
         Neighbour neig;
         synchronized (this) {
-            try {
-                neig= (Neighbour)list.get(""+name);
-            }
-            catch (Exception e) {
-                return false;
-            }
+            neig= get(name);
         }
         if (neig == null) {
-            win.Log("Neighbour "+name+" not deleted\n");
+            win.Log("Neighbour "+Router.name_str(name)+" not deleted\n");
             return false;
         }
         if (send_msg)
             neig.send_Bye(ds, win);
         synchronized (this) {
-            // Adds or replaces a member of the table
-            list.remove(""+name);
+            // Removes a member from the table
+            remove(neig);
         }
+        changed();
+        dead_timers.cancel(name);
         return true;
     }    
 
@@ -172,15 +195,17 @@ public class NeighbourList {
      */
     public boolean del_neig(Neighbour neig, boolean send_msg, DatagramSocket ds) {
         synchronized (this) {
-            if (!list.containsValue(neig))
+            if (get(neig.Name()) != neig)
                 return false;
         }
         if (send_msg)
             neig.send_Bye(ds, win);        
         synchronized (this) {
             // Removes a member from the list
-            list.remove(""+neig.Name());
+            remove(neig);
         }
+        changed();
+        dead_timers.cancel(neig.Name());
         return true;
     }
     
@@ -189,10 +214,8 @@ public class NeighbourList {
      * @param ds            datagram socket
      */
     public void clear_BYE(DatagramSocket ds) {
-        synchronized (this) {
-            for (Neighbour pt : list.values()) {
-                pt.send_Bye(ds, win);
-            }
+        for (Neighbour pt : snapshot()) {
+            pt.send_Bye(ds, win);
         }
         clear();
     }
@@ -203,16 +226,132 @@ public class NeighbourList {
     public void clear() {
         synchronized (this) {
             list.clear();
+            Arrays.fill(by_name, null);
+        }
+        changed();
+        dead_timers.clear();
+    }
+
+    /**
+     * Return the neighbour with a name; must be called with the list locked
+     * @param name  name to look for
+     * @return the neighbour object, or null if not found
+     */
+    private Neighbour get(char name) {
+        return (name < by_name.length) ? by_name[name] : null;
+    }
+
+    /**
+     * Add or replace a neighbour in both indexes; must be called with the 
+     * list locked
+     * @param pt  neighbour object
+     */
+    private void put(Neighbour pt) {
+        check_index();
+        char name= pt.Name();
+        if (name >= by_name.length) {
+            by_name= Arrays.copyOf(by_name, 
+                    Math.min(Math.max(2*by_name.length, name+1), Character.MAX_VALUE+1));
+        }
+        Neighbour old= by_name[name];
+        if (old != null)
+            list.remove(old.Sock_addr());
+        by_name[name]= pt;
+        list.put(pt.Sock_addr(), pt);
+    }
+
+    /**
+     * Rebuild the address index if a cached resolution changed since it
+     * was built, as the neighbours' addresses may have changed; must be 
+     * called with the list locked
+     */
+    private void check_index() {
+        int gen= Resolver.generation();
+        if (gen == index_gen)
+            return;
+        index_gen= gen;
+        ArrayList<Neighbour> aux= new ArrayList<>(list.values());
+        list.clear();
+        for (Neighbour pt : aux) {
+            list.put(pt.Sock_addr(), pt);
+        }
+    }
+
+    /**
+     * Remove a neighbour from both indexes; must be called with the list 
+     * locked
+     * @param pt  neighbour object
+     */
+    private void remove(Neighbour pt) {
+        check_index();
+        if (get(pt.Name()) == pt)
+            by_name[pt.Name()]= null;
+        if (list.get(pt.Sock_addr()) == pt)
+            list.remove(pt.Sock_addr());
+    }
+
+    /**
+     * Return the generation of the list, that changes each time the local
+     * vector may change
+     * @return generation counter
+     */
+    public int generation() {
+        return generation;
+    }
+
+    /**
+     * Increment the generation of the list
+     */
+    private synchronized void changed() {
+        generation++;
+    }
+
+    /**
+     * Restart the dead interval timer of a neighbour, after receiving a HELLO
+     * @param name  name of neighbour
+     */
+    public void refresh_dead_timer(char name) {
+        if (Routing.DEAD_INTERVAL > 0)
+            dead_timers.schedule(name, Routing.DEAD_INTERVAL*1000L);
+    }
+
+    /**
+     * Advance the dead interval timers by one tick
+     * @return the names of the neighbours that did not send HELLO during
+     *  the dead interval
+     */
+    public ArrayList<Character> expired_neigs() {
+        return dead_timers.advance();
+    }
+
+    /**
+     * Send a HELLO packet to all neighbours in the list
+     * @param ds    datagram socket
+     */
+    public void send_Hello(DatagramSocket ds) {
+        for (Neighbour pt : snapshot()) {
+            pt.send_Hello(ds, win);
         }
     }
     
+    /**
+     * Return a copy of the neighbours in the list, that may be used without
+     * locking the list
+     * @return array with the neighbour objects
+     */
+    public Neighbour[] snapshot() {
+        synchronized (this) {
+            return list.values().toArray(new Neighbour[list.size()]);
+        }
+    }
+
     /**
      * Locate a neighbour by name in the list
      * @param name  name to look for
      * @return the neighbour object, or null if not found
      */
-    public Neighbour locate_neig(char name) {
-        return (Neighbour)list.get(""+name);
+    public synchronized Neighbour locate_neig(char name) {
+        return get(name);
     }
 
     /**
@@ -222,13 +361,20 @@ public class NeighbourList {
      * @return the neighbour object, or null if not found
      */
     public Neighbour locate_neig(String ip, int port) {
-        synchronized (this) {
-            for (Neighbour pt : list.values()) {
-                if ((ip.compareTo(pt.Ip()) == 0) && (port == pt.Port()))
-                    return pt;
-            }
-        }
-        return null;
+        InetAddress addr= Resolver.resolve(ip);
+        if (addr == null)
+            return null;
+        return locate_neig(new InetSocketAddress(addr, port));
+    }
+
+    /**
+     * Locate a neighbour by socket address in the list
+     * @param addr  IP address and port number
+     * @return the neighbour object, or null if not found
+     */
+    public synchronized Neighbour locate_neig(InetSocketAddress addr) {
+        check_index();
+        return list.get(addr);
     }
 
     /**
@@ -240,12 +386,84 @@ public class NeighbourList {
      */
     public void send_packet(DatagramSocket ds, DatagramPacket dp, 
                             Neighbour exc) throws IOException {
+        send_packet(ds, Arrays.copyOfRange(dp.getData(), dp.getOffset(), 
+                dp.getOffset()+dp.getLength()), exc);
+    }
+
+    /**
+     * Send a packet to all neighbours in the list except 'exc'; the list is
+     * not locked while sending
+     * @param ds    datagram socket
+     * @param data  packet contents, not modified
+     * @param exc   neighbour to exclude, or null
+     * @throws IOException 
+     */
+    public void send_packet(DatagramSocket ds, byte[] data, 
+                            Neighbour exc) throws IOException {
+        IOException error= null;
+        for (Neighbour pt : snapshot()) {
+            if (pt == exc)
+                continue;
+            try {
+                pt.send_packet(ds, data);
+            }
+            catch (IOException e) {
+                // Try the other neighbours
+                error= e;
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Queue a packet to be flooded to all neighbours in the list of an
+     * area except 'exc'
+     * @param rec   packet contents
+     * @param key   LSA key (Routing.lsa_key) of the packet
+     * @param exc   neighbour to exclude, or null
+     * @param area  area number (Routing.area_of); -1 for all neighbours
+     * @return true if any queue is full and should be flushed
+     */
+    public boolean enqueue_flood(byte[] rec, long key, Neighbour exc, int area) {
+        boolean full= false;
         synchronized (this) {
             for (Neighbour pt : list.values()) {
-                if (pt != exc)
-                    pt.send_packet(ds, dp);
+                if ((pt != exc) && ((area < 0) || (Routing.area_of(pt.Name()) == area)))
+                    full|= pt.enqueue_flood(rec, key);
             }
-        }        
+        }
+        return full;
+    }
+
+    /**
+     * Queue again the flooded records not acknowledged by the neighbours
+     * @param interval  retransmission interval (ms)
+     * @return true if records were queued
+     */
+    public boolean retransmit(long interval) {
+        boolean queued= false;
+        long now= System.currentTimeMillis();
+        synchronized (this) {
+            for (Neighbour pt : list.values()) {
+                queued|= pt.retransmit(now, interval);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Pass the packets queued for flooding to all neighbours to the 
+     * outbound pipeline
+     * @param out   outbound pipeline
+     * @return number of datagrams accepted by the pipeline
+     */
+    public int flush_flood(SendPipeline out) {
+        int sent= 0;
+        for (Neighbour pt : snapshot()) {
+            sent+= pt.flush_flood(out, win);
+        }
+        return sent;
     }
 
     /**
@@ -258,13 +476,18 @@ public class NeighbourList {
             if (table.getColumnCount() < 4)
                 // Invalid number of columns
                 return false;
-            if (table.getRowCount() < max_range)
-                // Invalid number of rows
-                return false;
+            int rows= Math.max(min_rows, list.size());
+            if (table.getRowCount() != rows) {
+                if (!(table.getModel() instanceof DefaultTableModel))
+                    // Fixed number of rows
+                    rows= table.getRowCount();
+                else
+                    ((DefaultTableModel)table.getModel()).setRowCount(rows);
+            }
             
             // Update table
             Iterator it= list.values().iterator();        
-            for (int i= 0; i<max_range; i++) { // For every row
+            for (int i= 0; i<rows; i++) { // For every row
                 Neighbour pt;
                 if (it.hasNext())
                     pt= (Neighbour)it.next();
@@ -274,7 +497,7 @@ public class NeighbourList {
                     for (int j= 0; j<4; j++)
                         table.setValueAt("", i,  j);
                 } else {
-                    table.setValueAt(""+pt.Name(), i,  0);
+                    table.setValueAt(Router.name_str(pt.Name()), i,  0);
                     table.setValueAt(pt.Ip(), i,  1);
                     table.setValueAt(""+pt.Port(), i,  2);
                     table.setValueAt(""+pt.Dist(), i,  3);
@@ -0,0 +1,70 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * Path.java
+ *
+ * Holds a path between two routers
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+
+/**
+ * Path between two routers and its cost
+ */
+public class Path {
+
+    /** Routers in the path, from the origin to the destination, one char each */
+    public final String nodes;
+    /** Sum of the link distances */
+    public final int cost;
+
+    /**
+     * Constructor - create a new instance of Path
+     * @param nodes  routers in the path
+     * @param cost   path cost
+     */
+    public Path(String nodes, int cost) {
+        this.nodes= nodes;
+        this.cost= cost;
+    }
+
+    /**
+     * Return the origin of the path
+     * @return origin address
+     */
+    public char origin() { return nodes.charAt(0); }
+
+    /**
+     * Return the destination of the path
+     * @return destination address
+     */
+    public char dest() { return nodes.charAt(nodes.length()-1); }
+
+    /**
+     * Return the number of links in the path
+     * @return number of hops
+     */
+    public int hops() { return nodes.length()-1; }
+
+    /**
+     * Compare with another Path object
+     * @param p  a Path object
+     * @return true if both have the same routers
+     */
+    public boolean equals_to(Path p) {
+        return (p != null) && nodes.equals(p.nodes);
+    }
+
+    /**
+     * Return a string with the path contents
+     * @return string with the path contents
+     */
+    @Override
+    public String toString() {
+        return "("+Router.path_str(nodes)+" , "+cost+")";
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * Resolver.java
+ *
+ * Cache of host name resolutions, refreshed in the background
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Cache of address resolutions: host names are resolved once and then
+ * refreshed periodically by a background thread, so that the packet 
+ * reception path never waits for DNS
+ */
+public final class Resolver {
+
+    /** Interval between refreshes of the cached resolutions (ms) */
+    public final static int REFRESH_INTERVAL= 60000;
+    /** Maximum number of entries of each cache; the least recently used
+     *  are dropped, as packets from any address add entries */
+    public final static int MAX_ENTRIES= 1024;
+
+    /** Address of each host name or literal resolved */
+    private final static Map<String, InetAddress> names= lru_map();
+    /** Textual form of each address received, with the loopback replaced */
+    private final static Map<InetAddress, String> literals= lru_map();
+    /** Address of the local host */
+    private static volatile InetAddress local_host= InetAddress.getLoopbackAddress();
+    /** Counter incremented when a cached resolution changes */
+    private static volatile int generation= 0;
+    /** Released after the first refresh */
+    private final static CountDownLatch first_refresh= new CountDownLatch(1);
+    /** Thread that refreshes the resolutions */
+    private final static ScheduledExecutorService refresher= 
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t= new Thread(r, "Resolver");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        // The first refresh also runs in the background: loading the class
+        // does not wait for DNS
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh();
+                first_refresh.countDown();
+            }
+        }, 0, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private Resolver() {}
+
+    /**
+     * Create a synchronized map that keeps the MAX_ENTRIES most recently
+     * used entries
+     * @return the map
+     */
+    private static <K,V> Map<K,V> lru_map() {
+        return Collections.synchronizedMap(new LinkedHashMap<K,V>(16, 0.75f, true) {
+            private static final long serialVersionUID= 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        });
+    }
+
+    /**
+     * Start resolving the local host, waiting at most 'timeout' ms for it;
+     * until then the loopback address is used
+     * @param timeout  maximum waiting time (ms)
+     */
+    public static void init(long timeout) {
+        try {
+            first_refresh.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            // Stop waiting
+        }
+    }
+
+    /**
+     * Return the generation of the cache, that changes when a cached 
+     * resolution changes; objects that keep addresses resolve them again
+     * @return generation counter
+     */
+    public static int generation() {
+        return generation;
+    }
+
+    /**
+     * Resolve the local host and the host names in the cache again
+     */
+    private static void refresh() {
+        boolean changed= false;
+        try {
+            InetAddress lh= InetAddress.getLocalHost();
+            if (!lh.equals(local_host)) {
+                local_host= lh;
+                literals.clear();   // The loopback maps to a new address
+                changed= true;
+            }
+        }
+        catch (UnknownHostException e) {
+            // Keep the last address
+        }
+        ArrayList<String> hosts;
+        synchronized (names) {
+            hosts= new ArrayList<>(names.keySet());
+        }
+        for (String host : hosts) {
+            if (is_literal(host))
+                continue;
+            try {
+                InetAddress a= InetAddress.getByName(host);
+                InetAddress old= names.put(host, a);
+                changed|= !a.equals(old);
+            }
+            catch (UnknownHostException e) {
+                // Keep the last address
+            }
+        }
+        if (changed)
+            generation++;
+    }
+
+    /**
+     * Test if a string is a numeric IPv4 or IPv6 address, which is 
+     * converted without DNS queries
+     * @param host  host name or address
+     * @return true if it is numeric
+     */
+    public static boolean is_literal(String host) {
+        if (host.indexOf(':') >= 0)
+            return true;
+        for (int i= 0; i<host.length(); i++) {
+            char c= host.charAt(i);
+            if ((c != '.') && ((c < '0') || (c > '9')))
+                return false;
+        }
+        return !host.isEmpty();
+    }
+
+    /**
+     * Return the address of a host; only the first resolution of a host 
+     * name waits for DNS, the following ones use the cache
+     * @param host  host name or address
+     * @return the address, or null if unknown
+     */
+    public static InetAddress resolve(String host) {
+        if (host == null)
+            return null;
+        InetAddress a= names.get(host);
+        if (a != null)
+            return a;
+        try {
+            a= InetAddress.getByName(host);
+            names.put(host, a);
+            return a;
+        }
+        catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the address of the local host, refreshed in the background
+     * @return local host address
+     */
+    public static InetAddress local_host() {
+        return local_host;
+    }
+
+    /**
+     * Return the textual form of an address; loopback addresses are 
+     * replaced by the local host address, as neighbours are configured 
+     * with it. The strings are cached, so no new string is built for 
+     * each packet
+     * @param a  address
+     * @return string with the address
+     */
+    public static String host_address(InetAddress a) {
+        String s= literals.get(a);
+        if (s == null) {
+            s= (a.isLoopbackAddress() ? local_host : a).getHostAddress();
+            literals.put(a, s);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * RouteDiff.java
+ *
+ * Differences between two routing tables
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.ArrayList;
+
+
+/**
+ * Routes added, removed and changed from one routing table to another
+ */
+public class RouteDiff {
+
+    /** Routes only in the new table */
+    public final ArrayList<RouteEntry> added= new ArrayList<>();
+    /** Routes only in the old table */
+    public final ArrayList<RouteEntry> removed= new ArrayList<>();
+    /** Routes of the new table with a different distance or next hops */
+    public final ArrayList<RouteEntry> changed= new ArrayList<>();
+    /** Old routes of the entries in changed, in the same order */
+    public final ArrayList<RouteEntry> changed_from= new ArrayList<>();
+
+    /**
+     * Compute the differences between two routing tables
+     * @param from  old table, or null for an empty one
+     * @param to    new table, or null for an empty one
+     * @return the differences
+     */
+    public static RouteDiff diff(RoutingTable from, RoutingTable to) {
+        RouteDiff d= new RouteDiff();
+        if ((to != null) && to.is_valid()) {
+            for (RouteEntry re : to.get_routeset()) {
+                RouteEntry old= (from != null) ? from.get_RouteEntry(re.dest) : null;
+                if (old == null) {
+                    d.added.add(re);
+                } else if (!re.equals_to(old)) {
+                    d.changed.add(re);
+                    d.changed_from.add(old);
+                }
+            }
+        }
+        if ((from != null) && from.is_valid()) {
+            for (RouteEntry re : from.get_routeset()) {
+                if ((to == null) || (to.get_RouteEntry(re.dest) == null))
+                    d.removed.add(re);
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Check if the tables were equal
+     * @return true if there are no differences
+     */
+    public boolean is_empty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * Return the number of routes that differ
+     * @return number of routes
+     */
+    public int size() {
+        return added.size() + removed.size() + changed.size();
+    }
+
+    /**
+     * Return a string with the differences, one route per line
+     * @return string with the differences
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb= new StringBuilder();
+        for (RouteEntry re : added) {
+            sb.append("+ ").append(re).append('\n');
+        }
+        for (RouteEntry re : removed) {
+            sb.append("- ").append(re).append('\n');
+        }
+        for (int i= 0; i<changed.size(); i++) {
+            RouteEntry o= changed_from.get(i), n= changed.get(i);
+            sb.append("~ ").append(Router.name_str(n.dest)).append(": dist ")
+              .append(o.dist).append("->").append(n.dist)
+              .append(" (").append(n.dist >= o.dist ? "+" : "")
+              .append((long)n.dist - o.dist).append("), next_hop ")
+              .append(o.hops_str()).append("->").append(n.hops_str()).append('\n');
+        }
+        return sb.toString();
+    }
+}
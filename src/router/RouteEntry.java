@@ -12,6 +12,8 @@
 
 package router;
 
+import java.util.Arrays;
+
 public class RouteEntry extends Entry {
 
 // Fields inherited from Entry
@@ -20,17 +22,26 @@ public class RouteEntry extends Entry {
 // New fields
     /** next hop */
     public char next_hop;
+    /** equal-cost next hops, sorted; next_hop is one of them. The array is
+     *  replaced, never modified, so it may be shared between entries */
+    public char[] next_hops;
     /** Link State Specific field - true=route is final; false=route is tentative */
     public boolean ok;    
+    /** loop-free alternate next hop, used if next_hop fails; ' ' if none */
+    public char alt_hop;
+    /** weighted next hop selection table for unequal-cost paths, or null */
+    public char[] wtable;
     
     /**
      * Constructor - create an empty instance to a destination
      * @param dest destination address
      */
     public RouteEntry(char dest) {
-        super(dest, Router.MAX_DISTANCE);
+        super(dest, Router.INFINITY);
         next_hop= ' ';
+        next_hops= hops_of(' ');
         ok= false;
+        alt_hop= ' ';
     }
 
     /**
@@ -40,7 +51,10 @@ public class RouteEntry extends Entry {
     public RouteEntry(RouteEntry src) {
         super(src);
         next_hop= src.next_hop;
+        next_hops= src.next_hops;
         this.ok= false;
+        this.alt_hop= src.alt_hop;
+        this.wtable= src.wtable;
     }
 
     /**
@@ -51,7 +65,9 @@ public class RouteEntry extends Entry {
     public RouteEntry(Entry src, char next_hop) {
         super(src);
         this.next_hop= next_hop;
+        this.next_hops= hops_of(next_hop);
         this.ok= false;
+        this.alt_hop= ' ';
     }
     
     /**
@@ -63,7 +79,77 @@ public class RouteEntry extends Entry {
     public RouteEntry(char dest, char next_hop, int dist) {
         super(dest, dist);
         this.next_hop= next_hop;
+        this.next_hops= hops_of(next_hop);
         this.ok= false;
+        this.alt_hop= ' ';
+    }
+
+    /**
+     * Constructor - create an entry with a set of equal-cost next hops
+     * @param dest           destination address
+     * @param next_hops      next hop addresses, sorted
+     * @param dist           distance
+     */
+    public RouteEntry(char dest, char[] next_hops, int dist) {
+        super(dest, dist);
+        this.next_hop= (next_hops.length > 0) ? next_hops[0] : ' ';
+        this.next_hops= next_hops;
+        this.ok= false;
+        this.alt_hop= ' ';
+    }
+
+    /**
+     * Return the next hop set of a single next hop
+     * @param next_hop  next hop address, or ' '
+     * @return the set
+     */
+    private static char[] hops_of(char next_hop) {
+        return (next_hop == ' ') ? new char[0] : new char[] { next_hop };
+    }
+
+    /**
+     * Add next hops with the same cost to the entry
+     * @param hops  next hop addresses, sorted
+     */
+    public void add_next_hops(char[] hops) {
+        char[] aux= new char[next_hops.length + hops.length];
+        int i= 0, j= 0, n= 0;
+        while ((i < next_hops.length) || (j < hops.length)) {
+            char c;
+            if ((j >= hops.length) || ((i < next_hops.length) && (next_hops[i] <= hops[j])))
+                c= next_hops[i++];
+            else
+                c= hops[j++];
+            if ((n == 0) || (aux[n-1] != c))
+                aux[n++]= c;
+        }
+        next_hops= Arrays.copyOf(aux, n);
+        next_hop= next_hops[0];
+    }
+
+    /**
+     * Check if a router is one of the equal-cost next hops
+     * @param hop  router address
+     * @return true if it is a next hop
+     */
+    public boolean is_next_hop(char hop) {
+        return Arrays.binarySearch(next_hops, hop) >= 0;
+    }
+
+    /**
+     * Return a string with the next hops
+     * @return string with the next hops separated by ','
+     */
+    public String hops_str() {
+        if (next_hops.length == 0)
+            return Router.name_str(next_hop);
+        StringBuilder sb= new StringBuilder();
+        for (char c : next_hops) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(Router.name_str(c));
+        }
+        return sb.toString();
     }
 
     /**
@@ -72,7 +158,9 @@ public class RouteEntry extends Entry {
      * @return      true if objects are equal, false otherwise
      */
     public boolean equals_to (RouteEntry re) {
-        return ((Entry)this).equals_to(re) && (this.next_hop==re.next_hop);
+        return (re != null) && ((Entry)this).equals_to(re) && (this.next_hop==re.next_hop) &&
+            Arrays.equals(this.next_hops, re.next_hops) &&
+            (this.alt_hop==re.alt_hop) && Arrays.equals(this.wtable, re.wtable);
     }
     
     /**
@@ -92,12 +180,20 @@ public class RouteEntry extends Entry {
      */
     public boolean has_next() { return next_hop!=' '; }
     
+    /**
+     * Check if a loop-free alternate next hop is defined
+     * @return true if is defined, false otherwise
+     */
+    public boolean has_alt() { return alt_hop!=' '; }
+    
     /**
      * returns a string with the contents of a RouteEntry object
      * @return String with entry contents
      */
     @Override
     public String toString() {
-        return "(dest="+dest+",dist="+dist+", next_hop="+next_hop+")";
+        return "(dest="+Router.name_str(dest)+",dist="+dist+
+            ", next_hop="+hops_str()+
+            (has_alt() ? ", alt_hop="+Router.name_str(alt_hop) : "")+")";
     }
 }
@@ -13,6 +13,10 @@ package router;
 
 import java.net.*;
 import java.io.*;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -25,10 +29,26 @@ public class Router extends javax.swing.JFrame {
     public final static byte PKT_BYE = 2;
     public final static byte PKT_ROUTE = 3;
     public final static byte PKT_DATA = 4;
-    /** Maximum valid distance for a route, in the Dijkstra algorithm */
-    public final static int MAX_DISTANCE = 30;
+    public final static byte PKT_ROUTE_DELTA = 5;
+    public final static byte PKT_BUNDLE = 6;
+    public final static byte PKT_ACK = 7;
+    public final static byte PKT_DBD = 8;
+    public final static byte PKT_LSREQ = 9;
+    public final static byte PKT_BFD = 10;
+    public final static byte PKT_MDATA = 11;
+    /** Maximum valid distance for a link; metrics travel as 32-bit ints */
+    public final static int MAX_DISTANCE = 0xFFFFFF;
+    /** Distance of the ROUTE vector entries announcing a group membership;
+     *  links must be shorter */
+    public final static int GROUP_DIST = MAX_DISTANCE;
+    /** Distance of an unreachable destination, in the Dijkstra algorithm */
+    public final static int INFINITY = Integer.MAX_VALUE;
     /** Maximum path length for a DATA packet */
     public final static int MAX_PATH_LEN = 8;
+    /** Protocol version carried in HELLO packets; version 1 had no field */
+    public final static int PROTOCOL_VERSION = 2;
+    /** First wide node name; names below it are the letters 'A'-'Z' */
+    public final static char FIRST_WIDE_NAME = 0x100;
     
     /**
      * Constructor - creates a new form router
@@ -36,8 +56,19 @@ public class Router extends javax.swing.JFrame {
     public Router() {
         // Start main window
         initComponents();
+        // Parse the name and groups again only when they are edited
+        update_identity();
+        javax.swing.event.DocumentListener id_listener= new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) { update_identity(); }
+            public void removeUpdate(javax.swing.event.DocumentEvent e) { update_identity(); }
+            public void changedUpdate(javax.swing.event.DocumentEvent e) { update_identity(); }
+        };
+        editName.getDocument().addDocumentListener(id_listener);
+        editGroup.getDocument().addDocumentListener(id_listener);
         // To enable IPv4 multicast
         System.setProperty("java.net.preferIPv4Stack", "true");
+        // Resolve the local host address in the background
+        Resolver.init(1000);
         // Start Neighbour list
         neig= new NeighbourList(neigTable.getRowCount(), this);
         
@@ -500,6 +531,8 @@ public class Router extends javax.swing.JFrame {
             write_statistics();
         if (evt.getKeyChar() == 'z')
             zero_statistics();
+        if (evt.getKeyChar() == 'c')
+            write_route_checks();
     }//GEN-LAST:event_logTextAreaKeyPressed
 
     /**
@@ -557,9 +590,20 @@ public class Router extends javax.swing.JFrame {
             Log("Router is not active\n");
             return;
         }
+        String dest_str= editDestName.getText().trim();
+        // "*G" sends to all members of group G
+        boolean multicast= dest_str.startsWith("*");
+        char dest= parse_name(multicast ? dest_str.substring(1) : dest_str);
+        if (dest == ' ') {
+            Log("Invalid destination '"+editDestName.getText()+"'\n");
+            return;
+        }
         synchronized (this) {
-            route.send_data_packet(local_name(), data_seq++,
-                editDestName.getText().charAt(0), editMessage.getText(), "");
+            if (multicast)
+                route.send_mdata_packet(data_seq++, dest, editMessage.getText());
+            else
+                route.send_data_packet(local_name(), data_seq++,
+                    dest, editMessage.getText(), "");
         }
     }//GEN-LAST:event_buttonSendActionPerformed
 
@@ -572,13 +616,14 @@ public class Router extends javax.swing.JFrame {
             Log("Router is not active\n");
             return;
         }
-        if (neig.locate_neig(editNeigName.getText().charAt(0)) == null) {
+        char name= parse_name(editNeigName.getText());
+        if ((name == ' ') || (neig.locate_neig(name) == null)) {
             Log("Invalid neighbour\n");
             return;
         }
         try {
             synchronized (this) {
-                if (neig.update_neig(editNeigName.getText().charAt(0), 
+                if (neig.update_neig(name, 
                               editNeigIP.getText(), 
                               Integer.parseInt(editNeigPort.getText()),
                               Integer.parseInt(editNeigDist.getText()))) { /***************/
@@ -599,12 +644,13 @@ public class Router extends javax.swing.JFrame {
             Log("Router is not active\n");
             return;
         }
-        if (neig.locate_neig(editNeigName.getText().charAt(0)) == null) {
+        char name= parse_name(editNeigName.getText());
+        if ((name == ' ') || (neig.locate_neig(name) == null)) {
             Log("Invalid neighbour\n");
             return;
         }
         synchronized (this) {
-            if (neig.del_neig(editNeigName.getText().charAt(0), true, ds)) {
+            if (neig.del_neig(name, true, ds)) {
                 neig.refresh_table(neigTable);
                 if (checkBoxSndIfChanges.isSelected()) {
                     route.network_changed(true);
@@ -613,6 +659,20 @@ public class Router extends javax.swing.JFrame {
         }
     }//GEN-LAST:event_buttonRemActionPerformed
 
+    /**
+     * Remove a neighbour that stopped answering and update the routing
+     * @param name  neighbour's name
+     */
+    public void neighbour_lost(char name) {
+        synchronized (this) {
+            if ((route != null) && neig.del_neig(name, false, ds)) {
+                Log("Neighbour "+name_str(name)+" is dead\n");
+                neig.refresh_table(neigTable);
+                route.update_routing_table();
+            }
+        }
+    }
+
     /** 
      * Handle "Add Neig" button - Adds a new neighbour to the list 
      * @param evt graphical event
@@ -622,22 +682,23 @@ public class Router extends javax.swing.JFrame {
             Log("Router is not active\n");
             return;
         }
-        String new_name= editNeigName.getText();
-        if (new_name.length()>1 || !Character.isUpperCase(new_name.charAt(0))) {
-            Log("Invalid name '"+new_name+"'\n");
+        char new_name= parse_name(editNeigName.getText());
+        if (new_name == ' ') {
+            Log("Invalid name '"+editNeigName.getText()+"'\n");
             return;
         }
-        if (neig.locate_neig(new_name.charAt(0)) != null) {
+        if (neig.locate_neig(new_name) != null) {
             Log("Duplicate name\n");
             return;            
         }
         synchronized (this) {
             try {
-                if (neig.add_neig(new_name.charAt(0), 
+                if (neig.add_neig(new_name, 
                               editNeigIP.getText(), 
                               Integer.parseInt(editNeigPort.getText()),
                               Integer.parseInt(editNeigDist.getText()),
                               ds)) {
+                    route.start_sync(new_name);
                     neig.refresh_table(neigTable);
                     if (checkBoxSndIfChanges.isSelected()) {
                         route.network_changed(true);
@@ -660,36 +721,53 @@ public class Router extends javax.swing.JFrame {
             boolean active= false;
             try {
                 int port= Integer.parseInt(editPort.getText());
-                char c= editName.getText().charAt(0);              
+                char c= parse_name(editName.getText());
+                if (c == ' ') {
+                    Log("Invalid name '"+editName.getText()+"'\n");
+                    tbuttonActive.setSelected(false);
+                    return;
+                }
                 int period= Integer.parseInt(editPeriodo.getText());
                 int minInterval= Integer.parseInt(editMinInterval.getText());
                 int mport= Integer.parseInt (editPortbcastROUTE.getText());
                 do {
+                    // The channel lets SendPipeline send from the same port
+                    DatagramChannel ch= null;
                     try {
-                        ds= new DatagramSocket(port);
+                        ch= DatagramChannel.open();
+                        ch.bind(new InetSocketAddress(port));
+                        ds= ch.socket();
                         active= true;
                     }
-                    catch (SocketException se) {
+                    catch (IOException se) {
+                        if (ch != null) {
+                            try {
+                                ch.close();
+                            }
+                            catch (IOException e) {
+                                // Ignore
+                            }
+                        }
                         // Skip to next letter
                         port++;
                         c++;
                     }
-                } while (!active && (c<='Z'));
+                } while (!active && is_valid_name(c));
                 
                 if (!active) {
-                    Log("All letters ('A'-'Z') occupied\n");
+                    Log("All names occupied\n");
                     tbuttonActive.setSelected(false);
                     return;
                 }
                  // Update edit boxes
                 editPort.setText(""+port);
-                editName.setText(""+c);
-                editIP.setText(InetAddress.getLocalHost().getHostAddress());
-                editDestName.setText (""+c);
-                if (c<'Z') c++; else c--;
-                editNeigName.setText(""+c);
+                editName.setText(name_str(c));
+                editIP.setText(Resolver.local_host().getHostAddress());
+                editDestName.setText (name_str(c));
+                if (is_valid_name((char)(c+1))) c++; else c--;
+                editNeigName.setText(name_str(c));
                 editNeigPort.setText(""+(port+1));
-                editNeigIP.setText(InetAddress.getLocalHost().getHostAddress());
+                editNeigIP.setText(Resolver.local_host().getHostAddress());
 
                 // Start Routing timer
                 route= new Routing(local_name(), neig, 
@@ -702,7 +780,7 @@ public class Router extends javax.swing.JFrame {
                     return;
                 }
                 // Start unicast daemon thread
-                daemon= new UnicastDaemon(this, ds);
+                daemon= new UnicastDaemon(this, ds, route.bfd);
                 daemon.start();
                 // Lock entry windows
                 editName.setEditable(false);                
@@ -717,10 +795,6 @@ public class Router extends javax.swing.JFrame {
                 //
                 zero_statistics();
             }
-            catch (UnknownHostException e) {
-                Log("Localhost Unknown: "+e+"\n");
-                tbuttonActive.setSelected(false);
-            }
             catch (NumberFormatException e) {
                 Log("Invalid number (port, period, txttl or ackttl): "+e+"\n");
                 tbuttonActive.setSelected(false);
@@ -779,22 +853,98 @@ public class Router extends javax.swing.JFrame {
      * @return local name (address)
      */
     public char local_name() {
-        try {
-            return editName.getText().charAt(0);
+        char nm= identity.name;
+        if (nm == '*')
+            Log("Invalid local name '"+editName.getText()+"'\n");
+        return nm;
+    }
+
+    /**
+     * Return the local name and groups
+     * @return identity object
+     */
+    public LocalIdentity identity() {
+        return identity;
+    }
+
+    /**
+     * Parse the name and group fields into a new identity object
+     */
+    private void update_identity() {
+        identity= new LocalIdentity(editName.getText(), editGroup.getText());
+    }
+    
+    /**
+     * Test if a node name is valid: a letter 'A'-'Z' or a wide name
+     * in [FIRST_WIDE_NAME, 0xFFFE], excluding the surrogates (names are 
+     * kept in strings, where surrogate pairs would not be preserved)
+     * @param nm test name
+     * @return true if valid, false otherwise
+     */
+    public static boolean is_valid_name(char nm) {
+        return ((nm >= 'A') && (nm <= 'Z')) ||
+            ((nm >= FIRST_WIDE_NAME) && (nm < Character.MAX_VALUE) && 
+             !Character.isSurrogate(nm));
+    }
+
+    /**
+     * Return the printable form of a node name: the letter itself, or '#'
+     * followed by the number for wide names
+     * @param nm node name
+     * @return string with the name
+     */
+    public static String name_str(char nm) {
+        if ((nm >= FIRST_WIDE_NAME) && (nm < Character.MAX_VALUE))
+            return "#"+(int)nm;
+        return ""+nm;
+    }
+
+    /**
+     * Return the printable form of a path (sequence of node names)
+     * @param path string with one char per node
+     * @return string with the path
+     */
+    public static String path_str(String path) {
+        StringBuilder sb= new StringBuilder();
+        for (int i= 0; i<path.length(); i++) {
+            if (i>0 && (path.charAt(i) >= FIRST_WIDE_NAME || 
+                    path.charAt(i-1) >= FIRST_WIDE_NAME))
+                sb.append('.');
+            sb.append(name_str(path.charAt(i)));
         }
-        catch(Exception e) {
-            Log("Local name error: "+e);
+        return sb.toString();
+    }
+
+    /**
+     * Parse a node name written as a letter ('A'-'Z') or as '#'number
+     * @param str string with the name
+     * @return the name, or ' ' if invalid
+     */
+    public static char parse_name(String str) {
+        str= str.trim();
+        char nm= ' ';
+        if (str.length() == 1) {
+            nm= str.charAt(0);
+        } else if ((str.length() > 1) && (str.charAt(0) == '#')) {
+            try {
+                int n= Integer.parseInt(str.substring(1));
+                if ((n >= 0) && (n <= Character.MAX_VALUE))
+                    nm= (char)n;
+            }
+            catch (NumberFormatException e) {
+                return ' ';
+            }
         }
-        return '*';
+        return is_valid_name(nm) ? nm : ' ';
     }
-    
+
     /**
      * Test if nm is the local name
      * @param nm test name
      * @return true if names are equal, false otherwise
      */
     public boolean is_local_name(char nm) {
-        return (nm == local_name());
+        return identity.is_local_name(nm);
     }
 
 
@@ -812,7 +962,7 @@ public class Router extends javax.swing.JFrame {
      * @return true if names is a local group, false otherwise
      */
     public boolean is_local_group(char nm) {
-        return local_groups().contains(""+nm);
+        return identity.is_local_group(nm);
     }
 
     /** 
@@ -834,31 +984,38 @@ public class Router extends javax.swing.JFrame {
         try {
             code= dis.readByte();     // read code
             sender= dis.readChar();   // read sender id
-            String ip= dp.getAddress().getHostAddress();  // Get sender address            
-            if (ip.startsWith("127.")) {
-                try {
-                    ip= InetAddress.getLocalHost().getHostAddress();
-                }
-                catch (UnknownHostException e) {
-                    Log("Error converting address '127.*'\n");
-                    return false;
-                }
+            if (!is_valid_name(sender)) {
+                Log("Invalid sender ("+(int)sender+")\n");
+                INVALID_rcv++;
+                return false;
             }
+            // Get sender address; '127.*' is replaced by the local address
+            String ip= Resolver.host_address(dp.getAddress());
             
             switch(code) {
                 case PKT_HELLO:
-                    Log("PKT_HELLO("+sender+")\n");
+                    Log("PKT_HELLO("+name_str(sender)+")\n");
                     HELLO_rcv++;
                     // Update values
                     int dist= dis.readInt();
+                    // Version 1 routers did not send the version field
+                    int version= (dis.available() > 0) ? dis.readUnsignedByte() : 1;
                     if (dis.available() != 0) {
                         Log("Packet too long\n");
                         return false;
                     }
+                    if (version != PROTOCOL_VERSION) {
+                        Log("Incompatible protocol version ("+version+") from "+
+                            name_str(sender)+"\n");
+                        return false;
+                    }
                     if (tbuttonActive.isSelected()) {
+                        boolean is_new= (neig.locate_neig(sender) == null);
                         boolean ok= neig.add_neig(sender, ip, dp.getPort(), 
                             dist, ds);
                         if (ok) {
+                            if (is_new)
+                                route.start_sync(sender);
                             neig.refresh_table(neigTable);
                             if (checkBoxSndIfChanges.isSelected()) {
                                 route.network_changed(true);
@@ -867,7 +1024,7 @@ public class Router extends javax.swing.JFrame {
                     }
                     break;
                 case PKT_BYE:
-                    Log("PKT_BYE("+sender+")\n");
+                    Log("PKT_BYE("+name_str(sender)+")\n");
                     BYE_rcv++;
                     if (dis.available() != 0) {
                         Log("Packet too long\n");
@@ -887,9 +1044,33 @@ public class Router extends javax.swing.JFrame {
                     if (checkBoxBCastROUTE.isSelected())
                         return true;
                     return route.process_ROUTE(sender, dp, ip, dis, false);
+                case PKT_ROUTE_DELTA:
+                    ROUTE_rcv++;
+                    if (checkBoxBCastROUTE.isSelected())
+                        return true;
+                    return route.process_ROUTE_DELTA(sender, dp, ip, dis, false);
+                case PKT_BUNDLE:
+                    if (checkBoxBCastROUTE.isSelected())
+                        return true;
+                    return route.process_BUNDLE(sender, dp, ip, dis);
+                case PKT_ACK:
+                    if (checkBoxBCastROUTE.isSelected())
+                        return true;
+                    return route.process_ACK(sender, dp, ip, dis);
+                case PKT_DBD:
+                    if (checkBoxBCastROUTE.isSelected())
+                        return true;
+                    return route.process_DBD(sender, dp, ip, dis);
+                case PKT_LSREQ:
+                    if (checkBoxBCastROUTE.isSelected())
+                        return true;
+                    return route.process_LSREQ(sender, dp, ip, dis);
                 case PKT_DATA:
                     DATA_rcv++;
                     return route.process_DATA(sender, dp, ip, dis);
+                case PKT_MDATA:
+                    DATA_rcv++;
+                    return route.process_MDATA(sender, dp, ip, dis);
                 default:
                     Log("Invalid packet code ("+code+")\n");
                     INVALID_rcv++;
@@ -944,6 +1125,7 @@ public class Router extends javax.swing.JFrame {
         DATA_rcv= 0;
         INVALID_rcv= 0;
         Dijkstra_cnt= 0;        
+        SEND_drop.set(0);
     }
     
     /** Writes statistics */
@@ -953,10 +1135,48 @@ public class Router extends javax.swing.JFrame {
             "; BYE snt:"+BYE_snt+" rcv:"+BYE_rcv+
             "\nROUTE loc:"+ROUTE_loc+" snt:"+ROUTE_snt+" rcv:"+ROUTE_rcv+
             "\nDATA snt:"+DATA_snt+" rcv:"+DATA_rcv+
-            "; Invalid rcv:"+INVALID_rcv+"; Dijkstra cnt:"+Dijkstra_cnt+"\n"+
+            "; Invalid rcv:"+INVALID_rcv+"; Dijkstra cnt:"+Dijkstra_cnt+
+            "; Send drops:"+SEND_drop.get()+"\n"+
             "************************************************************\n");
     }
     
+    /**
+     * Write to the log the check of the routing table against the 
+     * all-pairs SPF, the shortest paths to the destination field and the
+     * routes that change if each neighbour link fails
+     */
+    public void write_route_checks() {
+        if (route == null) {
+            Log("Router is not active\n");
+            return;
+        }
+        Log("****Route checks********************************************\n");
+        ArrayList<String> errors= route.check_routing_table();
+        Log("Routing table check: "+(errors.isEmpty() ? "OK" : 
+                errors.size()+" differences")+"\n");
+        for (String s : errors) {
+            Log("  "+s+"\n");
+        }
+        char dest= parse_name(editDestName.getText().trim());
+        if ((dest != ' ') && (dest != local_name())) {
+            Log("Shortest paths to "+name_str(dest)+":");
+            for (Path p : route.k_shortest_paths(dest, 3)) {
+                Log(" "+p);
+            }
+            Log("\n");
+        }
+        ArrayList<WhatIf.Scenario> list= new ArrayList<>();
+        for (Neighbour pt : neig.snapshot()) {
+            list.add(new WhatIf.Scenario().link_down(local_name(), pt.Name()));
+        }
+        List<RouteDiff> res= route.what_if().run_all(list);
+        for (int i= 0; i<list.size(); i++) {
+            Log("Link "+list.get(i)+" down: "+res.get(i).size()+" routes change\n"+
+                res.get(i));
+        }
+        Log("************************************************************\n");
+    }
+    
     ////////////////////////////////////////////////////////////////////
         
     /** Datagram socket */
@@ -969,6 +1189,8 @@ public class Router extends javax.swing.JFrame {
     private Routing route;
     /** Data sequence counter */
     private int data_seq;
+    /** Local name and groups, rebuilt when the fields are edited */
+    private volatile LocalIdentity identity;
     
     /* Statistical counters */
     public int HELLO_snt;
@@ -982,6 +1204,9 @@ public class Router extends javax.swing.JFrame {
     public int DATA_rcv;
     public int INVALID_rcv;
     public int Dijkstra_cnt;
+    /** Packets dropped because a send queue was full; incremented by the
+     *  SendPipeline callers from several threads */
+    public final AtomicInteger SEND_drop= new AtomicInteger();
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     javax.swing.JButton buttonAdd;
@@ -31,12 +31,20 @@ public class RouterInfo {
     public Entry[] vec;
     /** Last sequence number */
     public int seq;
+    /** Fragments of the vector being reassembled, or null */
+    private Entry[][] frags;
+    /** Sequence number of the fragments being reassembled */
+    private int frags_seq;
+    /** Number of fragments still missing */
+    private int frags_missing;
     /** Time To Live (s) */
     public int TTL;
     /** Time when the vector was received */
     public Date date;
     /** Reference to the main window of the GUI */
     private Router win;
+    /** Incremented each time the vector contents or its validity change */
+    public int version;
 
     /**
      * Creates a new instance of RouterInfo
@@ -58,6 +66,17 @@ public class RouterInfo {
         this.win = win;
     }
 
+    /**
+     * Constructor - creates an empty instance of RouterInfo, filled later
+     * by the ROUTE fragments received
+     * @param win   Reference to the main window of the GUI
+     * @param name  address name
+     */
+    public RouterInfo(Router win, char name) {
+        this(win, name, 0, 0, null);
+        this.date = null;
+    }
+
     /**
      * Constructor - clones the content of another object
      * @param src  object to be cloned
@@ -68,6 +87,7 @@ public class RouterInfo {
         this.seq = src.seq;
         this.TTL = src.TTL;
         this.date = src.date;
+        this.version = src.version;
     }
 
     /**
@@ -76,22 +96,129 @@ public class RouterInfo {
      * @param seq   sequence number
      * @param TTL   Time to live
      */
-    public void update_vec(Entry[] vec, int seq, int TTL) {
+    public synchronized void update_vec(Entry[] vec, int seq, int TTL) {
+        if (!vec_valid() || !Entry.equal_Entry_vec(this.vec, vec)) {
+            version++;
+        }
         this.date = new Date(); // Get current time
         this.vec = vec;
         this.seq = seq;
         this.TTL = TTL;
     }
 
+    /**
+     * Add a ROUTE fragment; when all fragments of a sequence number are
+     * received, the vector is replaced by their concatenation
+     * @param seq       sequence number
+     * @param TTL       Time to live
+     * @param frag      fragment number
+     * @param frag_cnt  number of fragments
+     * @param data      Entry vector in the fragment
+     * @return true if the fragment is new, false if old or duplicated
+     */
+    public synchronized boolean add_fragment(int seq, int TTL, int frag, int frag_cnt, Entry[] data) {
+        if (seq <= this.seq) {
+            return false;   // Old or already complete
+        }
+        if ((frags == null) || (seq > frags_seq) || (frag_cnt != frags.length)) {
+            if ((frags != null) && (seq < frags_seq)) {
+                return false;   // Older than the one being reassembled
+            }
+            frags = new Entry[frag_cnt][];
+            frags_seq = seq;
+            frags_missing = frag_cnt;
+        }
+        if (frags[frag] != null) {
+            return false;   // Duplicated
+        }
+        frags[frag] = data;
+        if (--frags_missing == 0) {
+            int len = 0;
+            for (Entry[] f : frags) {
+                len += f.length;
+            }
+            Entry[] _vec = new Entry[len];
+            int i = 0;
+            for (Entry[] f : frags) {
+                System.arraycopy(f, 0, _vec, i, f.length);
+                i += f.length;
+            }
+            frags = null;
+            if (test_vec_contents(_vec)) {
+                update_vec(_vec, seq, TTL);
+            } else {
+                this.seq = seq;     // Skip the invalid sequence number
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply a ROUTE delta to the vector; it is only applied when the
+     * vector is defined and its sequence number is the delta base
+     * @param base  sequence number the delta applies to
+     * @param seq   new sequence number
+     * @param TTL   Time to live
+     * @param delta changes to the vector
+     * @return true if applied, false otherwise
+     */
+    public synchronized boolean apply_delta(int base, int seq, int TTL, Entry[] delta) {
+        if ((vec == null) || (this.seq != base) || (seq <= base)) {
+            return false;
+        }
+        Entry[] _vec = Entry.apply_Entry_delta(vec, delta);
+        if (!test_vec_contents(_vec)) {
+            return false;
+        }
+        if ((frags != null) && (frags_seq <= seq)) {
+            frags = null;   // Superseded by the delta
+        }
+        update_vec(_vec, seq, TTL);
+        return true;
+    }
+
     /**
      * Test if the vector is still valid (is defined and TTL has not elapsed
      * @return true if is valid, false otherwise
      */
-    public boolean vec_valid() {
+    public synchronized boolean vec_valid() {
         long now = System.currentTimeMillis();
         return (vec != null) && (date != null) && ((now - date.getTime()) <= TTL * 1000);
     }
 
+    /**
+     * Return the vector, if it is still valid; the vector is read under the
+     * same lock as the updates
+     * @return Entry vector, or null if not valid
+     */
+    public synchronized Entry[] valid_vec() {
+        return vec_valid() ? vec : null;
+    }
+
+    /**
+     * Return the time when the vector stops being valid
+     * @return expiration time (ms since the epoch), or Long.MAX_VALUE if
+     *  the vector is not valid
+     */
+    public synchronized long expiration() {
+        if (!vec_valid()) {
+            return Long.MAX_VALUE;
+        }
+        return date.getTime() + TTL * 1000L;
+    }
+
+    /**
+     * Return the time the vector is still valid
+     * @return remaining Time To Live (s), or 0 if not valid
+     */
+    public synchronized int remaining_TTL() {
+        if (!vec_valid()) {
+            return 0;
+        }
+        long elapsed = (System.currentTimeMillis() - date.getTime()) / 1000;
+        return (int)Math.max(0, TTL - elapsed);
+    }
+
     /**
      * Test if the vector in _vec is valid
      * @param _vec  vector to be tested
@@ -103,6 +230,11 @@ public class RouterInfo {
         }
         HashMap<String, String> h = new HashMap<>();
         for (Entry entry : _vec) {
+            if (entry.dist == 0) {
+                // Distance 0 only marks removals in ROUTE deltas
+                win.Log("Invalid vector - zero distance to '" + entry.dest + "'\n");
+                return false;
+            }
             if (h.containsKey("" + entry.dest)) {
                 win.Log("Invalid vector - duplicated destination '" + entry.dest + "'\n");
                 return false;
@@ -23,10 +23,51 @@ import java.util.HashMap;
  * Stores routing information for each area
  */
 public class Routing {
-    /** Maximum length of the Entry vector length */
-    public final static int MAX_ENTRY_VEC_LEN= 30;
+    /** Maximum length of the Entry vector in one ROUTE fragment; keeps the
+     *  datagram (13 + 6*len bytes) below a 1500 byte MTU */
+    public final static int MAX_ENTRY_VEC_LEN= 200;
+    /** Maximum number of fragments of one ROUTE vector */
+    public final static int MAX_FRAGMENTS= 255;
     /** Time added to the period to define the TTL field of the ROUTE packets */ 
     public final static int TTL_ADD= 10;
+    /** Number of ROUTE announcements between full vectors; the others are deltas */
+    public final static int FULL_ROUTE_PERIOD= 4;
+    /** Maximum length of a BUNDLE packet with flooded records (bytes) */
+    public final static int MAX_BUNDLE_LEN= 1400;
+    /** Delay for packing flooded records in BUNDLE packets (ms) */
+    public final static int FLOOD_PACING= 20;
+    /** Interval between retransmissions of unacknowledged records (ms) */
+    public final static int RXMT_INTERVAL= 1000;
+    /** Maximum number of retransmissions of a flooded record */
+    public final static int RXMT_MAX= 5;
+    /** Fragment number used in the LSA key of ROUTE deltas */
+    public final static int DELTA_FRAG= 255;
+    /** HELLO transmission period (s); 0 disables the keepalives */
+    public final static int HELLO_INTERVAL= Integer.getInteger("router.hello_interval", 5);
+    /** Time without HELLO before a neighbour is removed (s); 0 disables it */
+    public final static int DEAD_INTERVAL= Integer.getInteger("router.dead_interval", 4*HELLO_INTERVAL);
+    /** Resolution of the dead interval timers (ms) */
+    public final static int HELLO_TICK= 250;
+    /** BFD probe transmission interval (ms); 0 disables the BFD sessions */
+    public final static int BFD_INTERVAL= Integer.getInteger("router.bfd_interval", 0);
+    /** Number of BFD probes missed before declaring the link down */
+    public final static int BFD_MULTIPLIER= Integer.getInteger("router.bfd_multiplier", 3);
+    /** Maximum number of packets waiting to be sent to one neighbour */
+    public final static int SEND_QUEUE= Integer.getInteger("router.send_queue", 256);
+    /** Maximum time waiting for the queued packets when stopping (ms) */
+    public final static int STOP_TIMEOUT= 1000;
+    /** Maximum ratio between the cost of a path used for DATA and the best
+     *  path cost; 1 uses only equal-cost paths */
+    public final static int VARIANCE= Integer.getInteger("router.variance", 1);
+    /** If true, only the multipoint relays (MPR) of the transmitter re-flood */
+    public final static boolean MPR_FLOODING= Boolean.getBoolean("router.mpr");
+    /** Number of the backbone area */
+    public final static int BACKBONE= 0;
+    /** Invalid items of the area configuration, logged by the constructor */
+    private final static ArrayList<String> AREAS_ERRORS= new ArrayList<>();
+    /** Area of the link to each neighbour; the others are in the backbone */
+    public final static HashMap<Character, Integer> AREAS= 
+            parse_areas(System.getProperty("router.areas", ""), AREAS_ERRORS);
 
     /** Routing table object */
     public RoutingTable rtab;
@@ -34,6 +75,10 @@ public class Routing {
     public final DatagramSocket ds;
     /** A multicast socket is used initialy to broadcast the ROUTE packets! */
     public MulticastDaemon mdaemon;
+    /** Thread that runs the BFD sessions, or null if disabled */
+    public BfdDaemon bfd;
+    /** Thread that sends the flooded packets */
+    public SendPipeline out;
     
     /** Local address name */
     private final char local_name;
@@ -50,14 +95,46 @@ public class Routing {
     /** Reference to graphical routing table object */
     private final JTable tableObj;
 
-    /** List of routers with the ROUTE packets' information received (RouterInfo) */
-    public HashMap<Character, RouterInfo> map; 
+    /** Link state information of each area (Area) */
+    private final TreeMap<Integer, Area> areas;
+    /** Routing table computed in each area in the last calculation */
+    private HashMap<Integer, RoutingTable> area_tabs;
      /** Time of the last ROUTE packet sent */
     public Date lastSending;
     /** Sequence number of the next ROUTE packet to be sent */
     private int route_seq;
     /** Timer object that sends ROUTE packets */
     private javax.swing.Timer timer_announce;
+    /** Timer object that sends the flooding queues */
+    private javax.swing.Timer timer_flood;
+    /** Timer object that retransmits unacknowledged records */
+    private javax.swing.Timer timer_rxmt;
+    /** Timer object that sends HELLO packets */
+    private javax.swing.Timer timer_hello;
+    /** Timer object that advances the neighbours' dead interval timers */
+    private javax.swing.Timer timer_dead;
+    /** MPR sets computed for each transmitter; cleared when vectors change */
+    private final HashMap<Character, HashSet<Character>> mpr_cache;
+    /** Generation of the neighbour list when mpr_cache was filled */
+    private int mpr_neig_gen;
+    /** Topology used in the last routing table calculation */
+    private volatile Topology last_topo;
+    /** Incremented each time a vector in an area changes contents or validity */
+    private volatile int lsdb_gen = 0;
+    /** LSDB generation used in the last routing table calculation */
+    private int spf_lsdb_gen = -1;
+    /** Neighbour list generation used in the last routing table calculation */
+    private int spf_neig_gen = -1;
+    /** Time when the first vector used in the last calculation expires (ms) */
+    private long spf_expiration = 0;
+    /** Vectors that were valid in the last routing table calculation */
+    private final ArrayList<RouterInfo> spf_vectors = new ArrayList<>();
+    /** Multicast tree branches computed for each (source, group) */
+    private final HashMap<Integer, MulticastTree> mtree_cache;
+    /** Maximum number of branches in mtree_cache */
+    public final static int MTREE_CACHE_MAX= 1024;
+    /** Topology used by the branches in mtree_cache */
+    private Topology mtree_topo;
 
     /**
      * Create a new instance of a routing object, that encapsulates routing processes
@@ -80,9 +157,17 @@ public class Routing {
         this.win= win;
         this.ds= ds;
         this.tableObj= tableObj;
-        this.map = new HashMap<>();
+        this.areas = new TreeMap<>();
+        this.area_tabs = new HashMap<>();
         this.lastSending = null;
         this.timer_announce = null;
+        this.timer_flood = null;
+        this.timer_rxmt = null;
+        this.timer_hello = null;
+        this.timer_dead = null;
+        this.mpr_cache = new HashMap<>();
+        this.mtree_cache = new HashMap<>();
+        this.mtree_topo = null;
         this.route_seq = 1;
         this.period = period;
         this.min_interval = min_interval;
@@ -90,9 +175,15 @@ public class Routing {
 
         // Initialize everything
         this.mdaemon= new MulticastDaemon(ds, multi_addr, multi_port, win, this);
+        this.bfd= (BFD_INTERVAL > 0) ? 
+                new BfdDaemon(win, ds, neig, local_name, BFD_INTERVAL, BFD_MULTIPLIER) : null;
+        this.out= new SendPipeline(win, ds, SEND_QUEUE);
         this.rtab= null;
-        win.Log2("new routing(local='"+local_name+"', period="+period+
+        win.Log2("new routing(local='"+Router.name_str(local_name)+"', period="+period+
             ", min_interval="+min_interval+")");
+        for (String err : AREAS_ERRORS) {
+            win.Log(err+"\n");
+        }
     }
 
     /**
@@ -107,8 +198,16 @@ public class Routing {
         if (!mdaemon.isAlive()) {
             mdaemon.start();
         }
+        if ((bfd != null) && !bfd.isAlive()) {
+            bfd.start();
+        }
+        if (!out.isAlive()) {
+            out.start();
+        }
         update_routing_table();
         start_announce_timer();
+        start_rxmt_timer();
+        start_hello_timers();
         return true;
     }
 
@@ -125,9 +224,20 @@ public class Routing {
         // Stop multicast daemon
         mdaemon.stopRunning();
         mdaemon= null;
+        // Stop BFD sessions
+        if (bfd != null) {
+            bfd.stopRunning();
+            bfd= null;
+        }
       
         // Stop timer
         stop_announce_timer();        
+        stop_flood_timer();
+        stop_rxmt_timer();
+        stop_hello_timers();
+        // Stop outbound pipeline, waiting for the packets queued to be sent
+        //  before the socket is closed
+        out.stopRunning(STOP_TIMEOUT);
         // Clean the ROUTE list information
         // map.clear();
         
@@ -141,20 +251,55 @@ public class Routing {
     }
 
     /**
-     * Prepare a ROUTE packet with the neighbour information 
+     * Prepare the ROUTE packets with the neighbour information, splitting
+     * the vector in fragments of at most MAX_ENTRY_VEC_LEN entries
      * @param name  local name (address)
      * @param seq   sequence number
      * @param TTL   TTL value to put in the packet
      * @param vec   neighbour Entry vector
+     * @return the ROUTE packets, or null if error
+     */
+    public DatagramPacket[] make_ROUTE_packets(char name, int seq, 
+            int TTL, Entry[] vec) {
+        if (vec == null) {
+            win.Log("ERROR: null vec in make_ROUTE_packets\n");
+            return null;
+        }
+        int frag_cnt= Math.max(1, (vec.length+MAX_ENTRY_VEC_LEN-1)/MAX_ENTRY_VEC_LEN);
+        if (frag_cnt > MAX_FRAGMENTS) {
+            win.Log("ERROR: vector too long in make_ROUTE_packets ("+vec.length+")\n");
+            return null;
+        }
+        DatagramPacket[] dps= new DatagramPacket[frag_cnt];
+        for (int i= 0; i<frag_cnt; i++) {
+            int from= i*MAX_ENTRY_VEC_LEN;
+            Entry[] fvec= Arrays.copyOfRange(vec, from, 
+                    Math.min(vec.length, from+MAX_ENTRY_VEC_LEN));
+            dps[i]= make_ROUTE_packet(name, seq, TTL, i, frag_cnt, fvec);
+            if (dps[i] == null)
+                return null;
+        }
+        return dps;
+    }
+
+    /**
+     * Prepare one ROUTE packet fragment with the neighbour information 
+     * @param name      local name (address)
+     * @param seq       sequence number
+     * @param TTL       TTL value to put in the packet
+     * @param frag      fragment number
+     * @param frag_cnt  number of fragments
+     * @param vec       neighbour Entry vector of the fragment
      * @return the ROUTE packet, or null if error
      */
     public DatagramPacket make_ROUTE_packet(char name, int seq, 
-            int TTL, Entry[] vec) {        
+            int TTL, int frag, int frag_cnt, Entry[] vec) {        
         if (vec == null) {
             win.Log("ERROR: null vec in send_ROUTE_packet\n");
             return null;
         }
-        win.Log2("make_ROUTE_packet("+name+seq+","+TTL+","+"[");
+        win.Log2("make_ROUTE_packet("+Router.name_str(name)+seq+","+TTL+","+
+                frag+"/"+frag_cnt+",[");
         for (int i=0;i<vec.length;i++) {
             win.Log2(""+(i>0?",":"")+vec[i].toString());
         }
@@ -167,6 +312,8 @@ public class Routing {
             dos.writeChar(name);
             dos.writeShort(TTL);
             dos.writeInt(seq);
+            dos.writeByte(frag);
+            dos.writeByte(frag_cnt);
             dos.writeShort(vec.length);
             for (Entry vec1 : vec) {
                 vec1.writeEntry(dos);
@@ -183,7 +330,47 @@ public class Routing {
     }
 
     /**
-     * Return the local Entry vector for area 'area', used to prepare the ROUTE packet
+     * Prepare a ROUTE delta packet with the changes to the vector sent
+     * with sequence number base
+     * @param name  local name (address)
+     * @param base  sequence number of the vector the delta applies to
+     * @param seq   new sequence number
+     * @param TTL   TTL value to put in the packet
+     * @param delta changes to the vector; distance 0 removes the entry
+     * @return the ROUTE delta packet, or null if error
+     */
+    public DatagramPacket make_ROUTE_DELTA_packet(char name, int base, int seq,
+            int TTL, Entry[] delta) {
+        if ((delta == null) || (delta.length > MAX_ENTRY_VEC_LEN)) {
+            win.Log("ERROR: invalid delta in make_ROUTE_DELTA_packet\n");
+            return null;
+        }
+        win.Log2("make_ROUTE_DELTA_packet("+Router.name_str(name)+base+"->"+seq+
+                ","+TTL+","+Arrays.toString(delta)+")\n");
+        
+        ByteArrayOutputStream os= new ByteArrayOutputStream();
+        DataOutputStream dos= new DataOutputStream(os);
+        try {
+            dos.writeByte(Router.PKT_ROUTE_DELTA);
+            dos.writeChar(name);
+            dos.writeShort(TTL);
+            dos.writeInt(base);
+            dos.writeInt(seq);
+            dos.writeShort(delta.length);
+            for (Entry e : delta) {
+                e.writeEntry(dos);
+            }
+            byte [] buffer = os.toByteArray();
+            return new DatagramPacket(buffer, buffer.length);
+        }
+        catch (IOException e) {
+            win.Log("Error making ROUTE delta: "+e+"\n");                    
+            return null;
+        }
+    }
+
+    /**
+     * Return the local Entry vector, used to prepare the ROUTE packet
      * @return the Entry vector, or null if error
      */
     public Entry[] local_vec() {
@@ -198,6 +385,228 @@ public class Routing {
         return lvec;
     }
 
+    /**
+     * Return the local Entry vector for area 'area': the neighbours in the
+     * area; without areas, or with multicast ROUTEs, all neighbours
+     * @param area  area number
+     * @return the Entry vector, or null if error
+     */
+    public Entry[] local_vec(int area) {
+        Entry[] lvec = local_vec();
+        if ((lvec == null) || AREAS.isEmpty() || win.BcastROUTE_selected()) {
+            return lvec;
+        }
+        ArrayList<Entry> aux = new ArrayList<>();
+        for (Entry e : lvec) {
+            if (area_of(e.dest) == area)
+                aux.add(e);
+        }
+        return aux.toArray(new Entry[aux.size()]);
+    }
+
+    /**
+     * Return the local group memberships, as vector entries with distance
+     * Router.GROUP_DIST
+     * @return the Entry vector
+     */
+    public Entry[] local_group_vec() {
+        ArrayList<Entry> aux = new ArrayList<>();
+        for (char g : win.identity().groups()) {
+            if ((g != local_name) && !is_router(g)) {
+                aux.add(new Entry(g, Router.GROUP_DIST));
+            }
+        }
+        return aux.toArray(new Entry[aux.size()]);
+    }
+
+    /**
+     * Test if a name belongs to a known router: a neighbour or a router 
+     * with a valid vector in an area. Groups with the name of a router 
+     * are not announced, as groups and routers share the names
+     * @param name  name to test
+     * @return true if it is a router name
+     */
+    private boolean is_router(char name) {
+        if (neig.locate_neig(name) != null) {
+            return true;
+        }
+        for (Area a : area_list()) {
+            if (a.has_router(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the vector announced in area 'area': the local vector of the
+     * area, the local group memberships and, in area border routers, the 
+     * summaries of the routers and groups reached through the other areas
+     * @param area  area number
+     * @return the Entry vector, or null if error
+     */
+    public Entry[] area_vec(int area) {
+        Entry[] lvec = local_vec(area);
+        if (lvec == null) {
+            return null;
+        }
+        ArrayList<Entry> aux = new ArrayList<>(Arrays.asList(lvec));
+        HashSet<Character> dests = new HashSet<>();
+        for (Entry e : lvec) {
+            dests.add(e.dest);
+        }
+        for (Entry e : local_group_vec()) {
+            if (dests.add(e.dest))
+                aux.add(e);
+        }
+        if (is_abr()) {
+            for (Entry e : area_summaries(area)) {
+                if (dests.add(e.dest))     // Direct links are announced as they are
+                    aux.add(e);
+            }
+        }
+        return aux.toArray(new Entry[aux.size()]);
+    }
+
+    /**
+     * Return the summaries announced by an area border router in area
+     * 'area': the distance to the routers and groups reached through the 
+     * other areas
+     * @param area  area number
+     * @return the Entry vector
+     */
+    private Entry[] area_summaries(int area) {
+        HashMap<Character, Integer> sum = new HashMap<>();
+        for (Map.Entry<Integer, RoutingTable> at : area_tabs.entrySet()) {
+            int from = at.getKey();
+            if (from == area) {
+                continue;
+            }
+            Area a = areas.get(from);
+            HashSet<Character> groups = (a != null) ? a.groups() : new HashSet<Character>();
+            for (RouteEntry re : at.getValue().get_routeset()) {
+                // The backbone receives only the routers and groups inside
+                //  the other areas; the other areas also receive the 
+                //  backbone routes
+                boolean intra = (a != null) && (a.has_router(re.dest) || groups.contains(re.dest));
+                if (!intra && ((area == BACKBONE) || (from != BACKBONE))) {
+                    continue;
+                }
+                if ((re.dest == local_name) || (re.dist >= Router.GROUP_DIST)
+                        || area(area).has_router(re.dest)) {
+                    continue;
+                }
+                Integer d = sum.get(re.dest);
+                if ((d == null) || (re.dist < d)) {
+                    sum.put(re.dest, re.dist);
+                }
+            }
+        }
+        ArrayList<Entry> aux = new ArrayList<>();
+        for (Map.Entry<Character, Integer> s : sum.entrySet()) {
+            aux.add(new Entry(s.getKey(), s.getValue()));
+        }
+        return aux.toArray(new Entry[aux.size()]);
+    }
+
+    /**
+     * Parse the area configuration, a list of neighbour:area pairs
+     * separated by ',' (e.g. "B:1,C:1,#300:2")
+     * @param s       configuration string
+     * @param errors  list where the invalid items are added
+     * @return the area of each neighbour listed
+     */
+    public static HashMap<Character, Integer> parse_areas(String s, List<String> errors) {
+        HashMap<Character, Integer> aux = new HashMap<>();
+        for (String item : s.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] p = item.split(":");
+            try {
+                char name = Router.parse_name(p[0].trim());
+                int area = Integer.parseInt(p[1].trim());
+                if ((name != ' ') && (area >= 0)) {
+                    aux.put(name, area);
+                    continue;
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // Reported below
+            }
+            errors.add("Invalid router.areas item '"+item+"' ignored");
+        }
+        return aux;
+    }
+
+    /**
+     * Return the area of the link to a neighbour
+     * @param name  neighbour's name
+     * @return area number
+     */
+    public static int area_of(char name) {
+        Integer area = AREAS.get(name);
+        return (area != null) ? area : BACKBONE;
+    }
+
+    /**
+     * Return the area of the records received from a neighbour; multicast
+     * ROUTEs are not scoped and all go to the backbone
+     * @param from  neighbour that transmitted the record, or null
+     * @param mcast received from multicast socket
+     * @return area number
+     */
+    private int area_of(Neighbour from, boolean mcast) {
+        return (mcast || (from == null) || win.BcastROUTE_selected()) ? 
+                BACKBONE : area_of(from.Name());
+    }
+
+    /**
+     * Return the link state information of an area, creating it if needed
+     * @param id  area number
+     * @return the area
+     */
+    public synchronized Area area(int id) {
+        Area a = areas.get(id);
+        if (a == null) {
+            a = new Area(id);
+            areas.put(id, a);
+        }
+        return a;
+    }
+
+    /**
+     * Return the areas with link state information
+     * @return list of areas
+     */
+    public synchronized ArrayList<Area> area_list() {
+        return new ArrayList<>(areas.values());
+    }
+
+    /**
+     * Return the areas of the current neighbours; the backbone if none
+     * @return set of area numbers
+     */
+    public TreeSet<Integer> active_areas() {
+        TreeSet<Integer> aux = new TreeSet<>();
+        if (!AREAS.isEmpty() && !win.BcastROUTE_selected()) {
+            for (Neighbour pt : neig.snapshot()) {
+                aux.add(area_of(pt.Name()));
+            }
+        }
+        if (aux.isEmpty()) {
+            aux.add(BACKBONE);
+        }
+        return aux;
+    }
+
+    /**
+     * Check if the local router is an area border router (ABR)
+     * @return true if it has neighbours in more than one area
+     */
+    public boolean is_abr() {
+        return active_areas().size() > 1;
+    }
+
     
     /** Unmarshalls unicast ROUTE packet e process it */
     /**
@@ -219,11 +628,17 @@ public class Routing {
         }
         
         try {
-            win.Log("PKT_ROUTE("+sender+",");
+            win.Log("PKT_ROUTE("+Router.name_str(sender)+",");
             String aux;
             int TTL= dis.readShort();
             int seq= dis.readInt();
-            aux= "seq="+seq+","+"TTL="+TTL+",";
+            int frag= dis.readUnsignedByte();
+            int frag_cnt= dis.readUnsignedByte();
+            aux= "seq="+seq+","+"TTL="+TTL+","+"frag="+frag+"/"+frag_cnt+",";
+            if ((frag_cnt == 0) || (frag >= frag_cnt)) {
+                win.Log("\nInvalid fragment '"+frag+"/"+frag_cnt+"'\n");
+                return false;
+            }
             int n= dis.readShort();
             aux+= "List:"+n+": ";
             if ((n<=0) || (n>MAX_ENTRY_VEC_LEN)) {
@@ -242,25 +657,30 @@ public class Routing {
             }
             win.Log(aux+")\n");
               
-            //Locate corresponding RouterInfo object in map
-            RouterInfo router_info = new RouterInfo(win, sender, seq, TTL, data);
-            
-            if(map.get(sender) != null){
-                RouterInfo fromMap = map.get(sender);
-                if ((fromMap.seq < seq) && router_info.vec_valid()){
-                   if (!mcast && ((TTL - 1) > 0)){
-                        router_info.update_vec(data, seq, TTL - 1);
-                        map.replace(sender, router_info); 
-                        dp = make_ROUTE_packet(sender, router_info.seq, router_info.TTL, router_info.vec);
-                        if(next_Hop(sender) != ' ')
-                            neig.send_packet(ds, dp, neig.locate_neig(sender)); 
-                    }
-                    else
-                        map.replace(sender, router_info); 
-                }
+            long key = lsa_key(sender, seq, frag);
+            Neighbour from = mcast ? null : acknowledge(key, ip, dp.getPort());
+            int area = area_of(from, mcast);
+
+            //Locate corresponding RouterInfo object in the area's map
+            Area a = area(area);
+            RouterInfo router_info = a.map.computeIfAbsent(sender, 
+                    (k) -> new RouterInfo(win, k));
+            int version = router_info.version;
+            // Fragments are kept until the whole vector is received
+            if (!router_info.add_fragment(seq, TTL, frag, frag_cnt, data)) {
+                win.Log2("Old or duplicated ROUTE fragment - ignored\n");
+                return true;
+            }
+            if (router_info.version != version) {
+                lsdb_changed();
+            }
+            clear_mpr_cache();
+            if (!mcast && ((TTL - 1) > 0) && is_relay_for(from)) {
+                // Flood the fragment as received
+                dp = make_ROUTE_packet(sender, seq, TTL - 1, frag, frag_cnt, data);
+                if ((dp != null) && (next_Hop(sender) != ' '))
+                    flood_packet(dp, key, from, area); 
             }
-            else
-                map.put(sender, router_info);
            
             return true;    // If everything was done well
         } catch (IOException e) {
@@ -270,157 +690,964 @@ public class Routing {
     }
 
     /**
-     * Handle multicast ROUTE packets
+     * Unmarshall a ROUTE delta packet and process it; deltas that do not
+     * apply to the stored vector are ignored until the next full ROUTE
+     * @param sender    the sender address
+     * @param dp        datagram packet
+     * @param ip        IP address of the sender
+     * @param dis       input stream object
+     * @param mcast     received from multicast socket
+     * @return true if packet was handled successfully, false if error
+     */
+    public boolean process_ROUTE_DELTA(char sender, DatagramPacket dp, String ip, 
+            DataInputStream dis, boolean mcast) {
+        
+        if (sender == local_name) {
+            win.Log2("Packet loopback in process_ROUTE_DELTA - ignored\n");
+            return true;
+        }
+        
+        try {
+            int TTL= dis.readShort();
+            int base= dis.readInt();
+            int seq= dis.readInt();
+            int n= dis.readShort();
+            if ((n<0) || (n>MAX_ENTRY_VEC_LEN)) {
+                win.Log("PKT_ROUTE_DELTA: Invalid list length '"+n+"'\n");
+                return false;
+            }
+            Entry [] delta= new Entry [n];
+            for (int i= 0; i<n; i++) {
+                try {
+                    delta[i]= new Entry(dis);
+                } catch(IOException e) {
+                    win.Log("PKT_ROUTE_DELTA: Invalid vector Entry: "+e.getMessage()+"\n");
+                    return false;                    
+                }
+            }
+            win.Log("PKT_ROUTE_DELTA("+Router.name_str(sender)+",seq="+base+"->"+seq+
+                    ",TTL="+TTL+",List:"+n+")\n");
+            
+            long key = lsa_key(sender, seq, DELTA_FRAG);
+            Neighbour from = mcast ? null : neig.locate_neig(ip, dp.getPort());
+            int area = area_of(from, mcast);
+            RouterInfo router_info = area(area).map.get(sender);
+            int version = (router_info != null) ? router_info.version : 0;
+            if ((router_info == null) || !router_info.apply_delta(base, seq, TTL, delta)) {
+                win.Log2("ROUTE delta does not match stored vector - ignored\n");
+                if (!mcast && (router_info != null) && (router_info.seq >= seq)) {
+                    // Duplicate
+                    acknowledge(key, ip, dp.getPort());
+                    return true;
+                }
+                // Otherwise the base is missing: the delta is not 
+                // acknowledged and the full vector is requested
+                Neighbour src = (from != null) ? from : neig.locate_neig(sender);
+                if (src != null) {
+                    send_LSREQ(src, Collections.singletonList(sender));
+                }
+                return true;
+            }
+            if (!mcast) {
+                acknowledge(key, ip, dp.getPort());
+            }
+            if (router_info.version != version) {
+                lsdb_changed();
+            }
+            clear_mpr_cache();
+            if (!mcast && ((TTL - 1) > 0) && is_relay_for(from)) {
+                dp = make_ROUTE_DELTA_packet(sender, base, seq, TTL - 1, delta);
+                if ((dp != null) && (next_Hop(sender) != ' '))
+                    flood_packet(dp, key, from, area); 
+            }
+            return true;
+        } catch (IOException e) {
+            win.Log("PKT_ROUTE_DELTA: Packet too short\n");
+            return false;
+        }
+    }
+
+    /**
+     * Handle multicast ROUTE delta packets
+     *
+     * @param sender sender address
+     * @param dp datagram packet received
+     * @param ip IP address
+     * @param dis input stream
+     * @return true if handled successfully, false otherwise
+     */
+    public boolean process_multicast_ROUTE_DELTA(char sender, DatagramPacket dp, 
+            String ip, DataInputStream dis) {
+        
+        if (sender == local_name) {
+            // Packet loopback - ignore
+            return true;
+        }
+        win.Log2("multicast ");
+        return process_ROUTE_DELTA(sender, dp, ip, dis, true);
+    }
+
+    /**
+     * Unmarshall a BUNDLE packet and process each record it carries
+     * @param sender    the neighbour that sent the bundle
+     * @param dp        datagram packet
+     * @param ip        IP address of the sender
+     * @param dis       input stream object
+     * @return true if all records were handled successfully, false if error
+     */
+    public boolean process_BUNDLE(char sender, DatagramPacket dp, String ip, DataInputStream dis) {
+        try {
+            int n= dis.readShort();
+            win.Log2("PKT_BUNDLE("+Router.name_str(sender)+","+n+")\n");
+            boolean ok= true;
+            for (int i= 0; i<n; i++) {
+                byte[] rec= new byte[dis.readUnsignedShort()];
+                dis.readFully(rec);
+                DataInputStream rdis= new DataInputStream(new ByteArrayInputStream(rec));
+                byte code= rdis.readByte();
+                char origin= rdis.readChar();
+                if (!Router.is_valid_name(origin)) {
+                    win.Log("Invalid origin in bundle ("+(int)origin+")\n");
+                    ok= false;
+                    continue;
+                }
+                switch (code) {
+                    case Router.PKT_ROUTE:
+                        win.ROUTE_rcv++;
+                        ok&= process_ROUTE(origin, dp, ip, rdis, false);
+                        break;
+                    case Router.PKT_ROUTE_DELTA:
+                        win.ROUTE_rcv++;
+                        ok&= process_ROUTE_DELTA(origin, dp, ip, rdis, false);
+                        break;
+                    case Router.PKT_ACK:
+                        ok&= process_ACK(origin, dp, ip, rdis);
+                        break;
+                    case Router.PKT_DBD:
+                        ok&= process_DBD(origin, dp, ip, rdis);
+                        break;
+                    case Router.PKT_LSREQ:
+                        ok&= process_LSREQ(origin, dp, ip, rdis);
+                        break;
+                    default:
+                        win.Log("Invalid record in bundle ("+code+")\n");
+                        ok= false;
+                }
+            }
+            return ok;
+        } catch (IOException e) {
+            win.Log("PKT_BUNDLE: Packet too short\n");
+            return false;
+        }
+    }
+
+    /**
+     * Unmarshall an ACK packet and remove the records acknowledged from the
+     * neighbour's retransmission list
+     * @param sender    the neighbour that acknowledges
+     * @param dp        datagram packet
+     * @param ip        IP address of the sender
+     * @param dis       input stream object
+     * @return true if packet was handled successfully, false if error
+     */
+    public boolean process_ACK(char sender, DatagramPacket dp, String ip, DataInputStream dis) {
+        try {
+            int n= dis.readShort();
+            win.Log2("PKT_ACK("+Router.name_str(sender)+","+n+")\n");
+            Neighbour pt= neig.locate_neig(sender);
+            if (pt != null)
+                pt.sync_answered();
+            for (int i= 0; i<n; i++) {
+                char origin= dis.readChar();
+                int seq= dis.readInt();
+                int frag= dis.readUnsignedByte();
+                if (pt != null)
+                    pt.ack(lsa_key(origin, seq, frag));
+            }
+            return true;
+        } catch (IOException e) {
+            win.Log("PKT_ACK: Packet too short\n");
+            return false;
+        }
+    }
+
+    /*******************************
+     * Flooding reduction with multipoint relays (MPR)
+     */
+
+    /**
+     * Return the neighbour vector of a router in an area: the local vector
+     * or the last valid vector received
+     * @param area  area number
+     * @param name  router name
+     * @return the Entry vector, or null if unknown
+     */
+    private Entry[] lsdb_vec(int area, char name) {
+        if (name == local_name) {
+            return local_vec(area);
+        }
+        return area(area).vec(name);
+    }
+
+    /**
+     * Test if a vector entry of an area is a link to a router of the area,
+     * as kept by physical_topology, and not a group membership or an ABR 
+     * summary
+     * @param a  area
+     * @param e  vector entry
+     * @return true if it is a link
+     */
+    private boolean is_link(Area a, Entry e) {
+        return (e.dist != Router.GROUP_DIST) && ((e.dest == local_name) || a.has_router(e.dest));
+    }
+
+    /**
+     * Compute the MPR set of router t: a subset of its neighbours that
+     * covers all its two-hop neighbours, selected with the OLSR greedy
+     * heuristic. The result only depends on the vectors stored, so every
+     * router computes the same set for t.
+     * @param t  router name, a neighbour; the vectors of its area are used
+     * @return the MPR set, or null if t's vector is unknown
+     */
+    public HashSet<Character> compute_mpr(char t) {
+        int area= win.BcastROUTE_selected() ? BACKBONE : area_of(t);
+        Entry[] tvec= lsdb_vec(area, t);
+        if (tvec == null) {
+            return null;
+        }
+        // Neighbours of t and the two-hop neighbours each one covers
+        Area a= area(area);
+        TreeMap<Character, HashSet<Character>> cover= new TreeMap<>();
+        for (Entry e : tvec) {
+            if (is_link(a, e))
+                cover.put(e.dest, new HashSet<Character>());
+        }
+        HashSet<Character> two_hop= new HashSet<>();
+        for (Map.Entry<Character, HashSet<Character>> n : cover.entrySet()) {
+            Entry[] nvec= lsdb_vec(area, n.getKey());
+            if (nvec == null) {
+                continue;
+            }
+            for (Entry e : nvec) {
+                if ((e.dest != t) && !cover.containsKey(e.dest) && is_link(a, e)) {
+                    n.getValue().add(e.dest);
+                    two_hop.add(e.dest);
+                }
+            }
+        }
+        HashSet<Character> mpr= new HashSet<>();
+        // Neighbours that are the only way to reach a two-hop neighbour
+        for (char n2 : two_hop) {
+            char only= ' ';
+            int cnt= 0;
+            for (Map.Entry<Character, HashSet<Character>> n : cover.entrySet()) {
+                if (n.getValue().contains(n2)) {
+                    only= n.getKey();
+                    cnt++;
+                }
+            }
+            if (cnt == 1) {
+                mpr.add(only);
+            }
+        }
+        HashSet<Character> uncovered= new HashSet<>(two_hop);
+        for (char m : mpr) {
+            uncovered.removeAll(cover.get(m));
+        }
+        // Then the neighbours covering most of the remaining ones
+        while (!uncovered.isEmpty()) {
+            char best= ' ';
+            int best_cnt= 0;
+            for (Map.Entry<Character, HashSet<Character>> n : cover.entrySet()) {
+                int cnt= 0;
+                for (char n2 : n.getValue()) {
+                    if (uncovered.contains(n2))
+                        cnt++;
+                }
+                if (cnt > best_cnt) {
+                    best= n.getKey();
+                    best_cnt= cnt;
+                }
+            }
+            mpr.add(best);
+            uncovered.removeAll(cover.get(best));
+        }
+        return mpr;
+    }
+
+    /**
+     * Test if the local router must re-flood the records received from a
+     * neighbour: always, unless MPR_FLOODING is on and the local router is
+     * not one of the neighbour's MPRs
+     * @param from  neighbour that transmitted the record, or null
+     * @return true if the record must be re-flooded
+     */
+    private boolean is_relay_for(Neighbour from) {
+        if (!MPR_FLOODING || (from == null)) {
+            return true;
+        }
+        HashSet<Character> mpr;
+        synchronized (mpr_cache) {
+            if (mpr_neig_gen != neig.generation()) {
+                // A neighbour was added, removed or changed distance
+                mpr_cache.clear();
+                mpr_neig_gen= neig.generation();
+            }
+            mpr= mpr_cache.get(from.Name());
+            if (mpr == null) {
+                mpr= compute_mpr(from.Name());
+                if (mpr == null) {
+                    return true;    // Unknown neighbourhood - classic flooding
+                }
+                mpr_cache.put(from.Name(), mpr);
+            }
+        }
+        return mpr.contains(local_name);
+    }
+
+    /**
+     * Register a change in the contents of the vectors received
+     */
+    private synchronized void lsdb_changed() {
+        lsdb_gen++;
+    }
+
+    /**
+     * Clear the MPR sets computed, after a vector changed
+     */
+    private void clear_mpr_cache() {
+        synchronized (mpr_cache) {
+            mpr_cache.clear();
+        }
+    }
+
+    /*******************************
+     * Database synchronization
+     */
+
+    /**
+     * Start the database synchronization with a new neighbour, sending it
+     * a summary (origin, seq) of the ROUTE vectors known
+     * @param name  neighbour's name
+     */
+    public void start_sync(char name) {
+        if (win.BcastROUTE_selected()) {
+            return;     // All routers receive all the multicast ROUTEs
+        }
+        Neighbour pt= neig.locate_neig(name);
+        if (pt == null) {
+            return;
+        }
+        pt.sync_started(System.currentTimeMillis());
+        send_DBD(pt);
+    }
+
+    /**
+     * Send the DBD summary of the ROUTE vectors known to a neighbour
+     * @param pt    the neighbour
+     */
+    private void send_DBD(Neighbour pt) {
+        char name= pt.Name();
+        Area a= area(area_of(name));
+        ArrayList<Character> origins= new ArrayList<>();
+        ArrayList<Integer> seqs= new ArrayList<>();
+        if (a.last_vec != null) {
+            origins.add(local_name);
+            seqs.add(route_seq-1);
+        }
+        for (RouterInfo ri : a.map.values()) {
+            synchronized (ri) {
+                if (ri.vec_valid()) {
+                    origins.add(ri.name);
+                    seqs.add(ri.seq);
+                }
+            }
+        }
+        win.Log2("send_DBD("+Router.name_str(name)+","+origins.size()+")\n");
+        if (origins.isEmpty()) {
+            pt.sync_answered();     // Nothing to synchronize
+            return;
+        }
+        int max= (MAX_BUNDLE_LEN - 12) / 6;
+        try {
+            for (int i= 0; i<origins.size(); i+= max) {
+                int n= Math.min(max, origins.size()-i);
+                ByteArrayOutputStream os= new ByteArrayOutputStream();
+                DataOutputStream dos= new DataOutputStream(os);
+                dos.writeByte(Router.PKT_DBD);
+                dos.writeChar(local_name);
+                dos.writeShort(n);
+                for (int j= i; j<i+n; j++) {
+                    dos.writeChar(origins.get(j));
+                    dos.writeInt(seqs.get(j));
+                }
+                pt.enqueue_packet(os.toByteArray());
+            }
+        }
+        catch (IOException e) {
+            win.Log("Error making DBD: "+e+"\n");
+        }
+        start_flood_timer();
+    }
+
+    /**
+     * Unmarshall a DBD packet and request the ROUTE vectors that are 
+     * missing or older in the local database
+     * @param sender    the neighbour that sent the summary
+     * @param dp        datagram packet
+     * @param ip        IP address of the sender
+     * @param dis       input stream object
+     * @return true if packet was handled successfully, false if error
+     */
+    public boolean process_DBD(char sender, DatagramPacket dp, String ip, DataInputStream dis) {
+        try {
+            int n= dis.readShort();
+            win.Log("PKT_DBD("+Router.name_str(sender)+","+n+")\n");
+            Neighbour pt= neig.locate_neig(sender);
+            if (pt == null) {
+                return true;
+            }
+            pt.sync_answered();
+            Area a= area(area_of(sender));
+            ArrayList<Character> req= new ArrayList<>();
+            for (int i= 0; i<n; i++) {
+                char origin= dis.readChar();
+                int seq= dis.readInt();
+                if (origin == local_name) {
+                    continue;
+                }
+                RouterInfo ri= a.map.get(origin);
+                if (ri == null) {
+                    req.add(origin);
+                    continue;
+                }
+                synchronized (ri) {
+                    if (!ri.vec_valid() || (ri.seq < seq)) {
+                        req.add(origin);
+                    }
+                }
+            }
+            if (req.isEmpty()) {
+                return true;
+            }
+            send_LSREQ(pt, req);
+            return true;
+        } catch (IOException e) {
+            win.Log("PKT_DBD: Packet too short\n");
+            return false;
+        }
+    }
+
+    /**
+     * Queue LSREQ packets to a neighbour requesting the vectors of a list
+     * of routers
+     * @param pt    the neighbour
+     * @param req   origins of the vectors requested
+     */
+    private void send_LSREQ(Neighbour pt, List<Character> req) {
+        try {
+            int max= (MAX_BUNDLE_LEN - 12) / 2;
+            for (int i= 0; i<req.size(); i+= max) {
+                int cnt= Math.min(max, req.size()-i);
+                ByteArrayOutputStream os= new ByteArrayOutputStream();
+                DataOutputStream dos= new DataOutputStream(os);
+                dos.writeByte(Router.PKT_LSREQ);
+                dos.writeChar(local_name);
+                dos.writeShort(cnt);
+                for (int j= i; j<i+cnt; j++) {
+                    dos.writeChar(req.get(j));
+                }
+                pt.enqueue_packet(os.toByteArray());
+            }
+        } catch (IOException e) {
+            win.Log("Internal error in send_LSREQ: "+e+"\n");
+            return;
+        }
+        start_flood_timer();
+    }
+
+    /**
+     * Unmarshall a LSREQ packet and send the ROUTE vectors requested to
+     * the neighbour
+     * @param sender    the neighbour that requested the vectors
+     * @param dp        datagram packet
+     * @param ip        IP address of the sender
+     * @param dis       input stream object
+     * @return true if packet was handled successfully, false if error
+     */
+    public boolean process_LSREQ(char sender, DatagramPacket dp, String ip, DataInputStream dis) {
+        try {
+            int n= dis.readShort();
+            win.Log("PKT_LSREQ("+Router.name_str(sender)+","+n+")\n");
+            Neighbour pt= neig.locate_neig(sender);
+            if (pt == null) {
+                return true;
+            }
+            pt.sync_answered();
+            Area a= area(area_of(sender));
+            for (int i= 0; i<n; i++) {
+                char origin= dis.readChar();
+                int seq, TTL;
+                Entry[] vec;
+                if (origin == local_name) {
+                    seq= route_seq-1;
+                    TTL= local_TTL;
+                    vec= a.last_vec;
+                } else {
+                    RouterInfo ri= a.map.get(origin);
+                    if (ri == null) {
+                        continue;
+                    }
+                    synchronized (ri) {
+                        seq= ri.seq;
+                        TTL= ri.remaining_TTL();
+                        vec= ri.vec;
+                    }
+                }
+                if ((vec == null) || (TTL <= 0)) {
+                    continue;
+                }
+                DatagramPacket[] dps= make_ROUTE_packets(origin, seq, TTL, vec);
+                if (dps == null) {
+                    continue;
+                }
+                for (int j= 0; j<dps.length; j++) {
+                    pt.enqueue_flood(Arrays.copyOf(dps[j].getData(), dps[j].getLength()), 
+                            lsa_key(origin, seq, j));
+                }
+            }
+            flush_flood();
+            return true;
+        } catch (IOException e) {
+            win.Log("PKT_LSREQ: Packet too short\n");
+            return false;
+        }
+    }
+
+    /**
+     * Acknowledge a flooded record received from the neighbour at ip+port;
+     * receiving it also acknowledges a copy waiting to be sent to it
+     * @param key   LSA key of the record
+     * @param ip    IP address of the neighbour
+     * @param port  port number of the neighbour
+     * @return the neighbour, or null if unknown
+     */
+    private Neighbour acknowledge(long key, String ip, int port) {
+        Neighbour pt= neig.locate_neig(ip, port);
+        if (pt != null) {
+            pt.sync_answered();
+            pt.ack(key);
+            pt.enqueue_ack(key);
+            start_flood_timer();
+        }
+        return pt;
+    }
+
+    /**
+     * Handle multicast ROUTE packets
+     *
+     * @param sender sender address
+     * @param dp datagram packet received
+     * @param ip IP address
+     * @param dis input stream
+     * @return true if handled successfully, false otherwise
+     */
+    public boolean process_multicast_ROUTE(char sender, DatagramPacket dp, String ip, DataInputStream dis) {
+        
+        if (sender == local_name) {
+            // Packet loopback - ignore
+            return true;
+        }
+        win.Log2("multicast ");
+        return process_ROUTE(sender, dp, ip, dis, true);
+    }
+
+    /**
+     * Get the routing table contents
+     *
+     * @return the routing table
+     */
+    public RoutingTable get_routing_table() {
+        return rtab;
+    }
+    
+    /**
+     * Check if a routing table has all nodes final
+     *
+     * @param rt routing table
+     * @return true if all nodes are final, false if not
+     */
+    
+    public boolean check_if_final(RoutingTable rt){
+        
+         for (RouteEntry routeE : rt.get_routeset()) {
+             
+             // Return immediately false if one of the nodes are tentative
+             if(!routeE.is_final())
+                 return false;
+            
+         }
+         
+         // All nodes are final, return true
+         return true;
+    }
+    
+    /*******************************
+     * Dijkstra implementation
+     */
+
+    /**
+     * Run the Dijkstra algorithm, setting the routing table in main_rtab
+     * variable; each route also gets a loop-free alternate next hop, when
+     * one exists. The algorithm runs separately in each area and the
+     * tables are merged, keeping the shortest routes
+     *
+     * @param origin name of the starting router
+     * @return the routing table calculated
+     */
+    public RoutingTable run_dijkstra(char origin){
+        RoutingTable tab = null;
+        HashMap<Integer, RoutingTable> tabs = new HashMap<>();
+        Topology topo = null;
+        TreeSet<Integer> ids = active_areas();
+        for (int id : ids) {
+            Area a = area(id);
+            topo = new Topology(origin, local_vec(id), a.map);
+            RoutingTable t = topo.spf(origin);
+            topo.compute_lfa(origin, t);
+            topo.compute_variance(origin, t, VARIANCE);
+            tabs.put(id, t);
+            if (ids.size() == 1) {
+                tab = t;
+            } else {
+                tab = merge_tables((tab == null) ? new RoutingTable() : tab, t);
+            }
+        }
+        area_tabs = tabs;
+        // Path queries use only the links that exist
+        last_topo = physical_topology(origin);
+        return tab;
+    }
+
+    /**
+     * Build the topology of the physical links known in all areas, for 
+     * path queries. The summaries injected by area border routers are not
+     * links: an ABR only summarizes routers outside the area, so an entry
+     * of a vector is a link if the other end is the origin or announced its
+     * vector in the same area. The vectors sent by a router to each area 
+     * are merged. Group memberships are kept.
+     *
+     * @param origin name of the local router
+     * @return topology snapshot
+     */
+    private Topology physical_topology(char origin) {
+        HashMap<Character, TreeMap<Character, Integer>> links = new HashMap<>();
+        for (int id : active_areas()) {
+            Area a = area(id);
+            for (RouterInfo ri : a.map.values()) {
+                Entry[] v = ri.valid_vec();
+                if (v == null) {
+                    continue;
+                }
+                TreeMap<Character, Integer> l = links.get(ri.name);
+                if (l == null) {
+                    l = new TreeMap<>();
+                    links.put(ri.name, l);
+                }
+                for (Entry e : v) {
+                    if ((e.dist == Router.GROUP_DIST) || (e.dest == origin) 
+                            || a.has_router(e.dest)) {
+                        Integer d = l.get(e.dest);
+                        if ((d == null) || (e.dist < d)) {
+                            l.put(e.dest, e.dist);
+                        }
+                    }
+                }
+            }
+        }
+        HashMap<Character, Entry[]> adj = new HashMap<>();
+        for (Map.Entry<Character, TreeMap<Character, Integer>> l : links.entrySet()) {
+            ArrayList<Entry> aux = new ArrayList<>();
+            for (Map.Entry<Character, Integer> e : l.getValue().entrySet()) {
+                aux.add(new Entry(e.getKey(), e.getValue()));
+            }
+            adj.put(l.getKey(), aux.toArray(new Entry[aux.size()]));
+        }
+        Entry[] lvec = local_vec();
+        adj.put(origin, (lvec != null) ? lvec : new Entry[0]);
+        return new Topology(adj);
+    }
+
+    /**
+     * Merge copies of the routes of t into tab, keeping the shortest route
+     * to each destination; equal-cost routes join their next hops
+     *
+     * @param tab routing table updated
+     * @param t   routing table merged
+     * @return tab
+     */
+    private static RoutingTable merge_tables(RoutingTable tab, RoutingTable t) {
+        for (RouteEntry re : t.get_routeset()) {
+            RouteEntry old = tab.get_RouteEntry(re.dest);
+            if ((old == null) || (re.dist < old.dist)) {
+                RouteEntry ne = new RouteEntry(re);
+                ne.set_final();
+                tab.add_route(ne);
+            } else if ((re.dist == old.dist) && re.has_next()) {
+                old.add_next_hops(re.next_hops);
+                old.wtable = null;  // Weights of one area only
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * Return the topology used in the last routing table calculation
+     *
+     * @return topology snapshot
+     */
+    public Topology get_topology() {
+        Topology topo = last_topo;
+        return (topo != null) ? topo : physical_topology(local_name);
+    }
+
+    /**
+     * Compute the distance and next hop matrix between all routers
+     *
+     * @return the matrix, computed in parallel
+     */
+    public AllPairsSpf all_pairs_spf() {
+        return new AllPairsSpf(get_topology());
+    }
+
+    /**
+     * Compare the routes to the routers of the local areas in the current
+     * routing table with the all-pairs SPF matrix; the routes to groups
+     * and to the destinations of other areas are not compared
+     *
+     * @return list with the routes that differ; empty if all match
+     */
+    public ArrayList<String> check_routing_table() {
+        AllPairsSpf ap = all_pairs_spf();
+        HashSet<Character> dests = new HashSet<>();
+        for (char c : ap.names()) {
+            if (is_router(c)) {
+                dests.add(c);
+            }
+        }
+        return ap.check_table(local_name, rtab, dests);
+    }
+
+    /**
+     * Return a simulator of link and router failures for the local routes;
+     * the routing state is not changed by it
      *
-     * @param sender sender address
-     * @param dp datagram packet received
-     * @param ip IP address
-     * @param dis input stream
-     * @return true if handled successfully, false otherwise
+     * @return the simulator
      */
-    public boolean process_multicast_ROUTE(char sender, DatagramPacket dp, String ip, DataInputStream dis) {
-        
-        if (sender == local_name) {
-            // Packet loopback - ignore
-            return true;
-        }
-        win.Log2("multicast ");
-        return process_ROUTE(sender, dp, ip, dis, true);
+    public WhatIf what_if() {
+        return new WhatIf(get_topology(), win.local_name());
     }
 
     /**
-     * Get the routing table contents
+     * Compute the k shortest loopless paths from the local router to dest
      *
-     * @return the routing table
+     * @param dest destination address
+     * @param k    maximum number of paths
+     * @return the paths sorted by cost
      */
-    public RoutingTable get_routing_table() {
-        return rtab;
+    public ArrayList<Path> k_shortest_paths(char dest, int k) {
+        return new KShortestPaths(get_topology()).paths(win.local_name(), dest, k);
     }
-    
+
     /**
-     * Check if a routing table has all nodes final
+     * Compute the k shortest loopless paths from the local router to
+     * several destinations, in parallel
      *
-     * @param rt routing table
-     * @return true if all nodes are final, false if not
+     * @param dests destination addresses
+     * @param k     maximum number of paths for each destination
+     * @return the paths to each destination
      */
-    
-    public boolean check_if_final(RoutingTable rt){
-        
-         for (RouteEntry routeE : rt.get_routeset()) {
-             
-             // Return immediately false if one of the nodes are tentative
-             if(!routeE.is_final())
-                 return false;
-            
-         }
-         
-         // All nodes are final, return true
-         return true;
+    public Map<Character, ArrayList<Path>> k_shortest_paths(Collection<Character> dests, int k) {
+        return new KShortestPaths(get_topology()).paths(win.local_name(), dests, k);
     }
-    
+
+    /**
+     * Add two distances, saturating at Router.INFINITY
+     * @param d1 first distance
+     * @param d2 second distance
+     * @return the sum, or Router.INFINITY if it overflows
+     */
+    public static int add_dist(int d1, int d2) {
+        return (int)Math.min((long)d1 + d2, Router.INFINITY);
+    }
+
     /*******************************
-     * Dijkstra implementation
+     * ROUTE flooding implementation
      */
 
     /**
-     * Run the Dijkstra algorithm, setting the routing table in main_rtab
-     * variable
-     *
-     * @param origin name of the starting router
-     * @return the routing table calculated
+     * Build the key that identifies a flooded record
+     * @param origin  router that originated the record
+     * @param seq     sequence number
+     * @param frag    fragment number, or DELTA_FRAG for deltas
+     * @return the key
      */
-    
-public RoutingTable run_dijkstra(char origin){
-        
-        char nextN;                   // Next node to process
-        int bestNeighDist;            // Best neighbour distance
-        RouteEntry neighRouteEntry;   // Neighbour RouteEntry
-        RouteEntry re;                // RouteEntry with local node
-
-        // Create route entry with local node
-        RoutingTable tab = new RoutingTable();           
-        re = new RouteEntry(origin, ' ', 0);
-        // Set the local node final
-        re.set_final();            
-        // Add the route entry to the routing table
-        tab.add_route(re);                               
-        
-        // Populate the routing table
-        for (Entry neigh : neig.local_vec(false)) {
-            neighRouteEntry = new RouteEntry(neigh.dest, neigh.dest, neigh.dist);
-            tab.add_route(neighRouteEntry);
+    public static long lsa_key(char origin, int seq, int frag) {
+        return ((long)origin << 40) | ((seq & 0xFFFFFFFFL) << 8) | (frag & 0xFF);
+    }
+
+    /**
+     * Return the origin of a flooded record key
+     * @param key  LSA key
+     * @return the origin
+     */
+    public static char lsa_origin(long key) {
+        return (char)(key >>> 40);
+    }
+
+    /**
+     * Return the sequence number of a flooded record key
+     * @param key  LSA key
+     * @return the sequence number
+     */
+    public static int lsa_seq(long key) {
+        return (int)(key >>> 8);
+    }
+
+    /**
+     * Return the fragment number of a flooded record key
+     * @param key  LSA key
+     * @return the fragment number
+     */
+    public static int lsa_frag(long key) {
+        return (int)(key & 0xFF);
+    }
+
+    /**
+     * Flood a packet to all neighbours of an area except 'exc'; the packet
+     * is queued and sent in a BUNDLE with the others queued within 
+     * FLOOD_PACING ms, and is retransmitted until each neighbour 
+     * acknowledges it
+     * @param dp   packet to flood
+     * @param key  LSA key of the packet
+     * @param exc  neighbour to exclude, or null
+     * @param area area number; -1 floods to all neighbours
+     */
+    public void flood_packet(DatagramPacket dp, long key, Neighbour exc, int area) {
+        byte[] rec= Arrays.copyOfRange(dp.getData(), dp.getOffset(), 
+                dp.getOffset()+dp.getLength());
+        if (neig.enqueue_flood(rec, key, exc, AREAS.isEmpty() ? -1 : area)) {
+            flush_flood();
+        } else {
+            start_flood_timer();
         }
-        
-        // Copy of the map to prevent exceptions
-        HashMap<Character, RouterInfo> mapClone = map;
-        
-        // While the routing table has nodes tentative
-        while (!check_if_final(tab)){
+    }
 
-            nextN = '1';
-            bestNeighDist = 100;
+    /**
+     * Pass all records waiting in the flooding queues to the outbound 
+     * pipeline; the packets are sent by its thread
+     */
+    public synchronized void flush_flood() {
+        neig.flush_flood(out);
+    }
 
-            // For cycle to get the tentative node that is at minimum distance 
-            for (RouteEntry routeE : tab.get_routeset()) {
-                if (bestNeighDist > routeE.dist && !routeE.is_final()){
-                    nextN = routeE.dest;
-                    bestNeighDist = routeE.dist;
-                }
-            }  
-            
-            // Get the RouteEntry of the node inside the routing table and set it final
-            RouteEntry nodeRe = tab.get_RouteEntry(nextN);
-            tab.get_RouteEntry(nextN).set_final();           
-            
-            // If the map has the RouterInfo of the currentNode and it is valid
-            if (mapClone.get(nextN) != null && mapClone.get(nextN).vec_valid()) {
-                
-                // Iterate through all Entries contained on Rounterinfo
-                for (Entry fromMap : mapClone.get(nextN).vec){
-                    
-                    // Check if the distance is less than 30 (Requirement)
-                    if ((fromMap.dist + nodeRe.dist) <= MAX_ENTRY_VEC_LEN) {
-                        
-                        // Check if the RoutingTable has already a RouteEntry
-                        if (tab.get_RouteEntry(fromMap.dest) != null){
-                            
-                            // Get the RouteEntry from RoutingTable
-                            RouteEntry fromTab = tab.get_RouteEntry(fromMap.dest);
-                            
-                            // Check if a minimum distance is found
-                            if (fromTab.dist > (fromMap.dist + nodeRe.dist)){
-                                
-                                // Check if the next_hop is the same
-                                if (fromTab.next_hop != nodeRe.next_hop){
-                                    
-                                    // Create a new RouteEntry with the new values
-                                    fromTab = new RouteEntry(fromTab.dest, nodeRe.next_hop, nodeRe.dist + fromMap.dist);
-                                }
-                                else
-                                    // Update only the distance
-                                    fromTab.update_dist(nodeRe.dist + fromMap.dist);
-                                
-                                // Add the updated RouteEntry
-                                tab.add_route(fromTab);
-                            }
-                        }
-                        
-                        // Create a new RouteEntry and adds it to the RoutingTable
-                        else {
-                            RouteEntry newN = new RouteEntry(fromMap.dest, nodeRe.next_hop, nodeRe.dist + fromMap.dist);
-                            tab.add_route(newN);
-                        }
-                    }    
+    /**
+     * Starts the timer that sends the flooding queues, if it is not running
+     */
+    private synchronized void start_flood_timer() {
+        if ((timer_flood != null) && timer_flood.isRunning()) {
+            return;
+        }
+        timer_flood = new javax.swing.Timer(FLOOD_PACING, 
+                new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                flush_flood();
+            }
+        });
+        timer_flood.setRepeats(false);
+        timer_flood.start();
+    }
+
+    /**
+     * Starts the timer that retransmits unacknowledged records
+     */
+    private void start_rxmt_timer() {
+        timer_rxmt = new javax.swing.Timer(RXMT_INTERVAL, 
+                new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                // DBD summaries not answered yet
+                long now= System.currentTimeMillis();
+                for (Neighbour pt : neig.snapshot()) {
+                    if (pt.sync_retransmit(now, RXMT_INTERVAL))
+                        send_DBD(pt);
                 }
+                if (neig.retransmit(RXMT_INTERVAL))
+                    flush_flood();
             }
+        });
+        timer_rxmt.start();
+    }
+
+    /**
+     * Starts the timers that send the HELLO keepalives and detect the
+     * neighbours that stopped sending them
+     */
+    private void start_hello_timers() {
+        if (HELLO_INTERVAL > 0) {
+            timer_hello = new javax.swing.Timer(HELLO_INTERVAL*1000, 
+                    new java.awt.event.ActionListener() {
+                public void actionPerformed(java.awt.event.ActionEvent evt) {
+                    neig.send_Hello(ds);
+                }
+            });
+            timer_hello.start();
+        }
+        if (DEAD_INTERVAL > 0) {
+            timer_dead = new javax.swing.Timer(HELLO_TICK, 
+                    new java.awt.event.ActionListener() {
+                public void actionPerformed(java.awt.event.ActionEvent evt) {
+                    for (char name : neig.expired_neigs()) {
+                        win.neighbour_lost(name);
+                    }
+                }
+            });
+            timer_dead.start();
         }
-           
-        return tab;   
     }
 
-    /*******************************
-     * ROUTE flooding implementation
+    /**
+     * Stops the HELLO keepalive timers
+     */
+    private void stop_hello_timers() {
+        if (timer_hello != null) {
+            timer_hello.stop();
+            timer_hello = null;
+        }
+        if (timer_dead != null) {
+            timer_dead.stop();
+            timer_dead = null;
+        }
+    }
+
+    /**
+     * Stops the timer that retransmits unacknowledged records
+     */
+    private void stop_rxmt_timer() {
+        if (timer_rxmt != null) {
+            timer_rxmt.stop();
+            timer_rxmt = null;
+        }
+    }
+
+    /**
+     * Stops the timer that sends the flooding queues
      */
+    private synchronized void stop_flood_timer() {
+        if (timer_flood != null) {
+            timer_flood.stop();
+            timer_flood = null;
+        }
+    }
 
     /**
      * Send a ROUTE packet with neighbours' information
@@ -437,22 +1664,66 @@ public RoutingTable run_dijkstra(char origin){
 
         win.Log("send_local_ROUTE(multicast only)\n");
 
-        Entry[] vec = local_vec();
+        boolean ok = false;
+        int seq = route_seq;
+        for (int area : active_areas()) {
+            ok |= send_area_ROUTE(area(area), seq, use_multicast);
+        }
+        route_seq++;
+        if (ok) {
+            lastSending = new Date();
+            win.ROUTE_loc++;
+        }
+        return ok;
+    }
+
+    /**
+     * Send the ROUTE vector of an area to the neighbours in the area
+     * @param a             area
+     * @param seq           sequence number
+     * @param use_multicast if true, sends the ROUTE to the multicast group
+     * @return true if successful
+     */
+    private boolean send_area_ROUTE(Area a, int seq, boolean use_multicast) {
+        Entry[] vec = area_vec(a.id);
         if (vec == null) { // No vector
             return false;
         }
         
-        DatagramPacket dp = make_ROUTE_packet(win.local_name(), route_seq++, local_TTL, vec); 
+        DatagramPacket[] dps = null;
+        boolean is_delta = false;
+        if ((a.last_vec != null) && ((a.route_cnt % FULL_ROUTE_PERIOD) != 0)) {
+            // Send only the changes since the last announcement
+            Entry[] delta = Entry.diff_Entry_vec(a.last_vec, vec);
+            if (delta.length <= Math.min(vec.length/2, MAX_ENTRY_VEC_LEN)) {
+                DatagramPacket dp = make_ROUTE_DELTA_packet(win.local_name(), 
+                        seq-1, seq, local_TTL, delta);
+                if (dp != null) {
+                    dps = new DatagramPacket[] { dp };
+                    is_delta = true;
+                }
+            }
+        }
+        if (dps == null) {
+            dps = make_ROUTE_packets(win.local_name(), seq, local_TTL, vec); 
+            if (dps == null) {
+                return false;
+            }
+            a.route_cnt = 0;
+        }
+        a.last_vec = vec;
+        a.route_cnt++;
         
         try {
-            if(!use_multicast) 
-                neig.send_packet(ds, dp, null);
-            else 
-                mdaemon.send_packet(dp);
+            for (int i= 0; i<dps.length; i++) {
+                if(!use_multicast) 
+                    flood_packet(dps[i], lsa_key(win.local_name(), seq, 
+                            is_delta ? DELTA_FRAG : i), null, a.id);
+                else 
+                    mdaemon.send_packet(dps[i]);
+            }
       
-            lastSending = new Date();
             win.ROUTE_snt++;
-            win.ROUTE_loc++;
             return true;
         } catch (IOException e) {
             win.Log("Error sending ROUTE: " + e + "\n");
@@ -466,9 +1737,65 @@ public RoutingTable run_dijkstra(char origin){
     public void update_routing_table() {
         send_local_ROUTE(win.BcastROUTE_selected());
 
+        clear_mpr_cache();
+        recalculate_routing_table();
+    }
+
+    /**
+     * Test if a vector used in the last routing table calculation expired;
+     * refreshes with the same contents do not change the LSDB generation,
+     * so the deadline is moved to the next expiration of those vectors
+     *
+     * @return true if a vector used expired
+     */
+    private boolean spf_vectors_expired() {
+        if (System.currentTimeMillis() <= spf_expiration) {
+            return false;
+        }
+        long exp = Long.MAX_VALUE;
+        for (RouterInfo ri : spf_vectors) {
+            long e = ri.expiration();
+            if (e == Long.MAX_VALUE) {
+                return true;
+            }
+            exp = Math.min(exp, e);
+        }
+        spf_expiration = exp;
+        return false;
+    }
+
+    /**
+     * Recalculate the routing table; the table and the GUI are only
+     * replaced if a route changed
+     *
+     * @return the routes that changed
+     */
+    public synchronized RouteDiff recalculate_routing_table() {
+        if ((rtab != null) && (spf_lsdb_gen == lsdb_gen) && (spf_neig_gen == neig.generation())
+                && !spf_vectors_expired()) {
+            return new RouteDiff();     // Same topology as the last calculation
+        }
+        spf_lsdb_gen = lsdb_gen;
+        spf_neig_gen = neig.generation();
+        spf_vectors.clear();
+        spf_expiration = Long.MAX_VALUE;
+        for (Area a : area_list()) {
+            for (RouterInfo ri : a.map.values()) {
+                long exp = ri.expiration();
+                if (exp != Long.MAX_VALUE) {
+                    spf_vectors.add(ri);
+                    spf_expiration = Math.min(spf_expiration, exp);
+                }
+            }
+        }
         win.Dijkstra_cnt++;
-        rtab= run_dijkstra(win.local_name());
-        update_routing_window(rtab);
+        RoutingTable tab = run_dijkstra(win.local_name());
+        RouteDiff diff = tab.diff_from(rtab);
+        if ((rtab == null) || !diff.is_empty()) {
+            win.Log2("Routing table changed (" + diff.size() + " routes)\n" + diff);
+            update_routing_window(tab);
+        }
+        return diff;
     }
 
     /**
@@ -491,8 +1818,8 @@ public RoutingTable run_dijkstra(char origin){
         for (int i= 0; i<tableObj.getRowCount(); i++) {
             if ((iter != null) && iter.hasNext()) {
                 RouteEntry next= iter.next();
-                tableObj.setValueAt(""+next.dest,i,0);
-                tableObj.setValueAt(""+next.next_hop,i,1);
+                tableObj.setValueAt(Router.name_str(next.dest),i,0);
+                tableObj.setValueAt(next.hops_str(),i,1);
                 tableObj.setValueAt(""+next.dist,i,2);
             } else {
                 tableObj.setValueAt("",i,0);
@@ -585,11 +1912,21 @@ public RoutingTable run_dijkstra(char origin){
         if (win.SendIfChanges_selected()) {
             win.Log("network_changed("+(local_neig_change?"local":"remote")+") called\n");
 
-            // COMPLETE THIS PART
-            // Recalculate the table and send it if send_always or if the table changed
-            // Control the time between calculations and ROUTEs: 
-            //     if min_interval was not reached, sleep until that time before sending the ROUTE packet
-            // ...
+            clear_mpr_cache();
+            recalculate_routing_table();
+            boolean changed = false;
+            for (int area : active_areas()) {
+                changed |= !Entry.equal_Entry_vec(area(area).last_vec, area_vec(area));
+            }
+            if (!local_neig_change || !changed) {
+                return;     // Nothing new to announce
+            }
+            // Triggered ROUTE; within min_interval of the last one, the
+            // change is announced by the periodic timer
+            if (test_time_since_last_update()) {
+                send_local_ROUTE(win.BcastROUTE_selected());
+                reset_announce_timer();
+            }
         }
     }
 
@@ -603,10 +1940,51 @@ public RoutingTable run_dijkstra(char origin){
      * @return the address of the next hop, or ' ' if not found.
      */
     public char next_Hop(char dest) {
-        if (rtab == null) {
+        return next_Hop(local_name, dest);
+    }
+
+    /**
+     * returns next hop to reach destination for the flow sender-dest; when
+     * there are several next hops, all packets of a flow use the same one
+     * @param sender sender address
+     * @param dest destination address
+     * @return the address of the next hop, or ' ' if not found.
+     */
+    public char next_Hop(char sender, char dest) {
+        RoutingTable _rtab = rtab;
+        if (_rtab == null) {
             return ' ';
         }
-        return rtab.nextHop(dest);
+        RouteEntry re = _rtab.get_RouteEntry(dest);
+        if ((re == null) || !re.has_next()) {
+            return ' ';
+        }
+        // Unequal-cost paths, if computed, include the equal-cost ones
+        char[] hops = (re.wtable != null) ? re.wtable : re.next_hops;
+        int h = flow_hash(sender, dest);
+        for (int i = 0; i < hops.length; i++) {
+            // Skip the next hops lost since the SPF ran
+            char hop = hops[Math.floorMod(h + i, hops.length)];
+            if (neig.locate_neig(hop) != null) {
+                return hop;
+            }
+        }
+        // Next hops lost - use the loop-free alternate until the SPF runs
+        if (re.has_alt() && (neig.locate_neig(re.alt_hop) != null)) {
+            return re.alt_hop;
+        }
+        return ' ';
+    }
+
+    /**
+     * Hash of a DATA flow, used to select one of the equal-cost next hops
+     * @param sender sender address
+     * @param dest destination address
+     * @return non negative hash value
+     */
+    public static int flow_hash(char sender, char dest) {
+        int h = (sender << 16 | dest) * 0x9E3779B1;
+        return (h ^ (h >>> 15)) & 0x7FFFFFFF;
     }
 
     /**
@@ -615,10 +1993,21 @@ public RoutingTable run_dijkstra(char origin){
      * @param dp   datagram packet object
      */
     public void send_data_packet(char dest, DatagramPacket dp) {
-        if (win.is_local_name(dest) || win.is_local_group(dest)) {
+        send_data_packet(local_name, dest, dp);
+    }
+
+    /**
+     * send a DATA packet of the flow sender-dest using the routing table 
+     * and the neighbor information
+     * @param sender sender address
+     * @param dest destination address
+     * @param dp   datagram packet object
+     */
+    public void send_data_packet(char sender, char dest, DatagramPacket dp) {
+        if (win.identity().is_local(dest)) {
             // Send to local node
             try {
-                dp.setAddress(InetAddress.getLocalHost());
+                dp.setAddress(Resolver.local_host());
                 dp.setPort(ds.getLocalPort());
                 ds.send(dp);
                 win.DATA_snt++;
@@ -631,14 +2020,14 @@ public RoutingTable run_dijkstra(char origin){
             }
             
         } else { // Send to neighbour router
-            char prox= next_Hop(dest);
+            char prox= next_Hop(sender, dest);
             if (prox == ' ') {
                 win.Log("No route to destination: packet discarded\n");
             } else {
                 // Lookup neighbour
                 Neighbour pt= neig.locate_neig(prox);
                 if (pt == null) {
-                    win.Log("Invalid neighbour ("+prox+
+                    win.Log("Invalid neighbour ("+Router.name_str(prox)+
                         ") in routing table: packet discarder\n");
                     return;
                 }
@@ -653,6 +2042,99 @@ public RoutingTable run_dijkstra(char origin){
         }
     }
 
+    /**
+     * Return the branch at the local router of the multicast tree from 
+     * source to group; the branches are cached until the topology changes,
+     * only for sources in the topology and up to MTREE_CACHE_MAX
+     *
+     * @param source source address
+     * @param group group address
+     * @return the tree branch
+     */
+    public synchronized MulticastTree multicast_tree(char source, char group) {
+        Topology topo = get_topology();
+        if (topo != mtree_topo) {
+            mtree_cache.clear();
+            mtree_topo = topo;
+        }
+        if (!topo.nodes().contains(source)) {
+            // Unknown sources come from the packets: do not cache them
+            return MulticastTree.compute(topo, local_name, source, group);
+        }
+        int key = (source << 16) | group;
+        MulticastTree t = mtree_cache.get(key);
+        if (t == null) {
+            t = MulticastTree.compute(topo, local_name, source, group);
+            if (mtree_cache.size() >= MTREE_CACHE_MAX) {
+                mtree_cache.clear();
+            }
+            mtree_cache.put(key, t);
+        }
+        return t;
+    }
+
+    /**
+     * send a multicast DATA packet from the local router to the members of
+     * a group
+     *
+     * @param seq sequence number
+     * @param group group address
+     * @param msg message contents
+     */
+    public void send_mdata_packet(int seq, char group, String msg) {
+        if (!Router.is_valid_name(group)) {
+            win.Log("Invalid group '"+Router.name_str(group)+"'\n");
+            return;
+        }
+        forward_mdata_packet(local_name, seq, group, msg, "", ' ');
+    }
+
+    /**
+     * send one copy of a multicast DATA packet to each downstream branch
+     * of the tree from sender; adds local_name to path
+     *
+     * @param sender source address
+     * @param seq sequence number
+     * @param group group address
+     * @param msg message contents
+     * @param path path already transverse
+     * @param prev router the packet came from; ' ' at the source
+     * @return true if the packet was forwarded or reached a leaf
+     */
+    private boolean forward_mdata_packet(char sender, int seq, char group, 
+            String msg, String path, char prev) {
+        MulticastTree t = multicast_tree(sender, group);
+        if ((sender != local_name) && (prev != t.upstream)) {
+            // Reverse path check - copies from outside the tree would loop
+            win.Log("MDATA packet not received from upstream "+
+                    Router.name_str(t.upstream)+": packet discarded\n");
+            return false;
+        }
+        if (t.children.length == 0) {
+            return true;
+        }
+        DatagramPacket dp = make_data_packet(Router.PKT_MDATA, sender, seq, group, msg, path);
+        if (dp == null) {
+            return false;
+        }
+        for (char c : t.children) {
+            Neighbour pt = neig.locate_neig(c);
+            if (pt == null) {
+                win.Log("Invalid neighbour ("+Router.name_str(c)+
+                        ") in multicast tree: branch skipped\n");
+                continue;
+            }
+            try {
+                pt.send_packet(ds, dp);
+                win.DATA_snt++;
+            }
+            catch(IOException e) {
+                win.Log("Error sending MDATA packet: "+e+"\n");
+            }
+        }
+        return true;
+    }
+
     /**
      * prepares a data packet; adds local_name to path
      *
@@ -665,17 +2147,34 @@ public RoutingTable run_dijkstra(char origin){
      */
     public DatagramPacket make_data_packet(char sender, int seq, char dest, 
             String msg, String path) {
+        return make_data_packet(Router.PKT_DATA, sender, seq, dest, msg, path);
+    }
+
+    /**
+     * prepares a data or multicast data packet; adds local_name to path
+     *
+     * @param code packet code (Router.PKT_DATA or Router.PKT_MDATA)
+     * @param sender sender name
+     * @param dest destination or group name
+     * @param seq sequence number
+     * @param msg message contents
+     * @param path path already transverse
+     * @return datagram packet to send
+     */
+    public DatagramPacket make_data_packet(byte code, char sender, int seq, 
+            char dest, String msg, String path) {
         ByteArrayOutputStream os= new ByteArrayOutputStream();
         DataOutputStream dos= new DataOutputStream(os);
         try {
-            dos.writeByte(Router.PKT_DATA);
+            dos.writeByte(code);
             dos.writeChar(sender);
             dos.writeInt(seq);
             dos.writeChar(dest);
             dos.writeShort(msg.length());
             dos.writeBytes(msg);
+            // Path: one char per node, to support wide names
             dos.writeByte(path.length()+1);
-            dos.writeBytes(path+win.local_name());
+            dos.writeChars(path+win.local_name());
         }
         catch (IOException e) {
             win.Log("Error encoding data packet: "+e+"\n");
@@ -696,17 +2195,17 @@ public RoutingTable run_dijkstra(char origin){
      */
     public void send_data_packet(char sender, int seq, char dest, String msg,
             String path) {
-        if (!Character.isUpperCase(sender)) {
-            win.Log("Invalid sender '"+sender+"'\n");
+        if (!Router.is_valid_name(sender)) {
+            win.Log("Invalid sender '"+Router.name_str(sender)+"'\n");
             return;
         }
-        if (!Character.isUpperCase(dest)) {
-            win.Log("Invalid destination '"+dest+"'\n");
+        if (!Router.is_valid_name(dest)) {
+            win.Log("Invalid destination '"+Router.name_str(dest)+"'\n");
             return;
         }
         DatagramPacket dp= make_data_packet(sender, seq, dest, msg, path);
         if (dp != null) {
-            send_data_packet(dest, dp);
+            send_data_packet(sender, dest, dp);
         }
     }
 
@@ -721,10 +2220,40 @@ public RoutingTable run_dijkstra(char origin){
      */
     public boolean process_DATA(char sender, DatagramPacket dp, 
             String ip, DataInputStream dis) {
+        return process_data(sender, dp, ip, dis, false);
+    }
+
+    /**
+     * unmarshals MDATA packet e process it: delivers it if the group is 
+     * local and replicates it to the branches of the tree from sender
+     *
+     * @param sender the source of the packet
+     * @param dp datagram packet received
+     * @param ip IP of the sender
+     * @param dis data input stream
+     * @return true if decoding was successful
+     */
+    public boolean process_MDATA(char sender, DatagramPacket dp, 
+            String ip, DataInputStream dis) {
+        return process_data(sender, dp, ip, dis, true);
+    }
+
+    /**
+     * unmarshals DATA or MDATA packet e process it
+     *
+     * @param sender the sender of the packet
+     * @param dp datagram packet received
+     * @param ip IP of the sender
+     * @param dis data input stream
+     * @param multicast true for MDATA packets
+     * @return true if decoding was successful
+     */
+    private boolean process_data(char sender, DatagramPacket dp, 
+            String ip, DataInputStream dis, boolean multicast) {
         try {
-            win.Log("PKT_DATA");
-            if (!Character.isUpperCase(sender)) {
-                win.Log("Invalid sender '"+sender+"'\n");
+            win.Log(multicast ? "PKT_MDATA" : "PKT_DATA");
+            if (!Router.is_valid_name(sender)) {
+                win.Log("Invalid sender '"+Router.name_str(sender)+"'\n");
                 return false;
             }
             // Read seq
@@ -745,28 +2274,41 @@ public RoutingTable run_dijkstra(char origin){
             }
             String msg= new String(sbuf1,0,n);
             // Read path
-            int len_path= dis.readByte();
+            int len_path= dis.readUnsignedByte();
             if (len_path>Router.MAX_PATH_LEN) {
                 win.Log(": path length too long ("+len_msg+">"+Router.MAX_PATH_LEN+
                     ")\n");
                 return false;
             }
-            byte [] sbuf2= new byte [len_path];
-            n= dis.read(sbuf2,0,len_path);
-            if (n != len_path) {
-                win.Log(": Invalid path length\n");
-                return false;
+            StringBuilder sb= new StringBuilder(len_path);
+            for (int i= 0; i<len_path; i++) {
+                sb.append(dis.readChar());
+            }
+            String path= sb.toString();
+            LocalIdentity id= win.identity();
+            win.Log(" ("+Router.name_str(sender)+"-"+Router.name_str(dest)+"-"+seq+
+                    "):'"+msg+"':Path='"+Router.path_str(path+id.name)+
+                    (id.is_local_group(dest)?"("+Router.name_str(dest)+")":"")+"'\n");
+            if (multicast) {
+                if (id.is_local_group(dest)) {
+                    win.Log("MDATA packet reached group member\n");
+                }
+                // The reverse path check uses the neighbour that sent the
+                // packet, not the path written by it
+                Neighbour from= neig.locate_neig(ip, dp.getPort());
+                if (from == null) {
+                    win.Log("MDATA packet not received from a neighbour: packet discarded\n");
+                    return false;
+                }
+                return forward_mdata_packet(sender, seq, dest, msg, path, from.Name());
             }
-            String path= new String(sbuf2,0,n);
-            win.Log(" ("+sender+"-"+dest+"-"+seq+"):'"+msg+"':Path='"+path+win.local_name()+
-                    (win.is_local_group(dest)?"("+dest+")":"")+"'\n");
             // Test routing table
-            if (win.is_local_name(dest) || win.is_local_group(dest) /*Anycast*/) {
+            if (id.is_local(dest) /*Anycast*/) {
                 // Arrived at destination
                 win.Log("DATA packet reached destination\n");
                 return true;
             } else {
-                char prox= next_Hop(dest);
+                char prox= next_Hop(sender, dest);
                 if (prox == ' ') {
                     win.Log("No route to destination: packet discarded\n");
                     return false;
@@ -103,7 +103,7 @@ public final class RoutingTable {
      */
     public char nextHop(char dest) {
         RouteEntry re= get_RouteEntry(dest);
-        if (!is_valid())
+        if (re == null)
             return ' ';
         return re.next_hop;
     }
@@ -124,7 +124,7 @@ public final class RoutingTable {
      * @return true if rt is equal to rtab and not null, false otherwise
      */
     public boolean equal_RoutingTable(RoutingTable rt) {
-        if ((rt == null) || !rt.is_valid() || is_valid() )
+        if ((rt == null) || !rt.is_valid() || !is_valid())
             return false;
         HashMap<Character, RouteEntry> map= rt.rtab;
         if (rtab.size() != map.size()) {
@@ -140,6 +140,15 @@ public final class RoutingTable {
         return true;
     } 
     
+    /**
+     * Return the routes that changed from an older table to this one
+     * @param old - older routing table, or null
+     * @return the differences
+     */
+    public RouteDiff diff_from(RoutingTable old) {
+        return RouteDiff.diff(old, this);
+    }
+
     /**
      * Log the content of a routing table object
      * @param win Main window
@@ -0,0 +1,143 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * SendPipeline.java
+ *
+ * Thread that sends the packets queued to the neighbours
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
+
+/**
+ * Outbound pipeline: packets are queued per neighbour and a sender thread
+ * writes them to the socket channel, so that the packet reception path
+ * never waits for the socket
+ */
+public class SendPipeline extends Thread {
+        volatile boolean keepRunning= true;
+        Router win;
+        DatagramSocket ds;
+        /** Channel of the socket, or null if packets are sent directly */
+        DatagramChannel ch;
+        /** Queue of each neighbour address, in round-robin order */
+        private final LinkedHashMap<InetSocketAddress, ArrayDeque<byte[]>> queues;
+        /** Maximum number of packets queued to one neighbour */
+        int max_queue;
+
+        // Constructor
+        SendPipeline(Router win, DatagramSocket ds, int max_queue) {
+            super("SendPipeline");
+            this.win= win;
+            this.ds= ds;
+            this.ch= ds.getChannel();
+            this.max_queue= max_queue;
+            this.queues= new LinkedHashMap<>();
+            setDaemon(true);
+        }
+
+        /**
+         * Queue a packet to a neighbour; without a channel the packet is
+         * sent immediately
+         * @param to    neighbour address (IP+port)
+         * @param data  packet contents, not modified afterwards
+         * @return true if queued or sent, false if the queue was full; the
+         *  packet is dropped and counted in Router.SEND_drop
+         * @throws IOException
+         */
+        public boolean send(InetSocketAddress to, byte[] data) throws IOException {
+            if (ch == null) {
+                ds.send(new DatagramPacket(data, data.length, to));
+                return true;
+            }
+            synchronized (queues) {
+                ArrayDeque<byte[]> q= queues.get(to);
+                if (q == null) {
+                    q= new ArrayDeque<>();
+                    queues.put(to, q);
+                }
+                if (q.size() >= max_queue) {
+                    // Flooded records are retransmitted until acknowledged
+                    win.SEND_drop.incrementAndGet();
+                    return false;
+                }
+                q.add(data);
+                queues.notify();
+            }
+            return true;
+        }
+
+        // Thread main function
+        @Override
+        public void run() {
+            if (ch == null)
+                return;
+            ArrayList<InetSocketAddress> dest= new ArrayList<>();
+            ArrayList<byte[]> batch= new ArrayList<>();
+            do {
+                batch.clear();
+                dest.clear();
+                synchronized (queues) {
+                    while (keepRunning && queues.isEmpty()) {
+                        try {
+                            queues.wait();
+                        }
+                        catch (InterruptedException e) {
+                            // Stopped
+                        }
+                    }
+                    // Take one packet from each queue in turn until all
+                    // are empty
+                    while (!queues.isEmpty()) {
+                        Iterator<Map.Entry<InetSocketAddress, ArrayDeque<byte[]>>> it=
+                                queues.entrySet().iterator();
+                        while (it.hasNext()) {
+                            Map.Entry<InetSocketAddress, ArrayDeque<byte[]>> e= it.next();
+                            dest.add(e.getKey());
+                            batch.add(e.getValue().poll());
+                            if (e.getValue().isEmpty())
+                                it.remove();
+                        }
+                    }
+                }
+                // Write the batch without locking the queues
+                for (int i= 0; i<batch.size(); i++) {
+                    try {
+                        ch.send(ByteBuffer.wrap(batch.get(i)), dest.get(i));
+                    }
+                    catch (IOException e) {
+                        win.Log("Error sending to "+dest.get(i)+": "+e+"\n");
+                    }
+                }
+            } while (keepRunning);
+        }
+
+        /**
+         * Stop the thread after sending the packets already queued; the
+         * socket must only be closed after it returns
+         * @param timeout  maximum time waiting for the queued packets (ms)
+         */
+        public void stopRunning(long timeout) {
+            keepRunning= false;
+            synchronized (queues) {
+                queues.notify();
+            }
+            try {
+                join(timeout);
+            }
+            catch (InterruptedException e) {
+                // Stop waiting
+            }
+            if (isAlive())
+                win.Log("Send pipeline did not finish within "+timeout+" ms\n");
+        }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * TimerWheel.java
+ *
+ * Hashed timer wheel holding one timer per router name
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.*;
+
+
+/**
+ * Hashed timer wheel: each timer is placed in the slot where it expires;
+ * advancing one tick only visits the timers of one slot
+ */
+public class TimerWheel {
+
+    /** Timers in each slot */
+    private final ArrayList<HashSet<Character>> slots;
+    /** Slot and remaining rounds of each timer */
+    private final HashMap<Character, int[]> timers;
+    /** Tick duration (ms) */
+    private final int tick;
+    /** Current slot */
+    private int cur;
+
+    /**
+     * Constructor - create a new instance of TimerWheel
+     * @param n_slots   number of slots
+     * @param tick      tick duration (ms)
+     */
+    public TimerWheel(int n_slots, int tick) {
+        this.slots= new ArrayList<>(n_slots);
+        for (int i= 0; i<n_slots; i++) {
+            slots.add(new HashSet<Character>());
+        }
+        this.timers= new HashMap<>();
+        this.tick= tick;
+        this.cur= 0;
+    }
+
+    /**
+     * Return the tick duration
+     * @return tick duration (ms)
+     */
+    public int Tick() { return tick; }
+
+    /**
+     * Start or restart the timer of a name
+     * @param name   router name
+     * @param delay  time until expiration (ms)
+     */
+    public synchronized void schedule(char name, long delay) {
+        cancel(name);
+        long ticks= Math.max(1, (delay + tick - 1) / tick);
+        int slot= (int)((cur + ticks) % slots.size());
+        int rounds= (int)((ticks - 1) / slots.size());
+        slots.get(slot).add(name);
+        timers.put(name, new int[] { slot, rounds });
+    }
+
+    /**
+     * Stop the timer of a name
+     * @param name  router name
+     */
+    public synchronized void cancel(char name) {
+        int[] t= timers.remove(name);
+        if (t != null) {
+            slots.get(t[0]).remove(name);
+        }
+    }
+
+    /**
+     * Stop all timers
+     */
+    public synchronized void clear() {
+        for (HashSet<Character> slot : slots) {
+            slot.clear();
+        }
+        timers.clear();
+    }
+
+    /**
+     * Advance one tick
+     * @return the names whose timer expired
+     */
+    public synchronized ArrayList<Character> advance() {
+        ArrayList<Character> expired= new ArrayList<>();
+        cur= (cur + 1) % slots.size();
+        Iterator<Character> it= slots.get(cur).iterator();
+        while (it.hasNext()) {
+            char name= it.next();
+            int[] t= timers.get(name);
+            if (t[1] > 0) {
+                t[1]--;
+            } else {
+                it.remove();
+                timers.remove(name);
+                expired.add(name);
+            }
+        }
+        return expired;
+    }
+}
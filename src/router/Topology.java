@@ -0,0 +1,500 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * Topology.java
+ *
+ * Snapshot of the link state database used by the SPF computations
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.*;
+
+
+/**
+ * Snapshot of the neighbour vectors of all routers (the link state graph);
+ * it is not changed after created, so it can be shared between threads
+ */
+public class Topology {
+
+    /** Number of entries of the weighted next hop selection tables */
+    public final static int WEIGHT_SLOTS= 16;
+
+    /** Neighbour vector of each router */
+    private final HashMap<Character, Entry[]> adj;
+    /** Router whose neighbours' shortest paths are in neig_spf */
+    private char neig_spf_origin= ' ';
+    /** Shortest paths from each neighbour of neig_spf_origin */
+    private HashMap<Character, RoutingTable> neig_spf= null;
+
+    /**
+     * Constructor - create a snapshot from the local vector and the valid
+     * vectors received in ROUTE packets
+     * @param local_name  local address
+     * @param local_vec   local neighbour vector
+     * @param map         vectors received from the other routers
+     */
+    public Topology(char local_name, Entry[] local_vec, Map<Character, RouterInfo> map) {
+        adj= new HashMap<>();
+        for (RouterInfo ri : map.values()) {
+            Entry[] v= ri.valid_vec();
+            if (v != null) {
+                adj.put(ri.name, v);
+            }
+        }
+        adj.put(local_name, (local_vec != null) ? local_vec : new Entry[0]);
+        drop_router_groups();
+    }
+
+    /**
+     * Constructor - create a snapshot from a table of vectors
+     * @param adj  neighbour vector of each router
+     */
+    public Topology(Map<Character, Entry[]> adj) {
+        this.adj= new HashMap<>(adj);
+        drop_router_groups();
+    }
+
+    /**
+     * Remove the group memberships to groups with the name of a router; 
+     * groups and routers share the names, and a membership costs 0, so 
+     * it would create false links to that router. Without them, groups 
+     * never have a vector and are leaves of the SPF
+     */
+    private void drop_router_groups() {
+        for (Map.Entry<Character, Entry[]> a : adj.entrySet()) {
+            Entry[] v= a.getValue();
+            int n= 0;
+            for (Entry e : v) {
+                if ((e.dist != Router.GROUP_DIST) || !adj.containsKey(e.dest))
+                    n++;
+            }
+            if (n == v.length)
+                continue;
+            Entry[] aux= new Entry[n];
+            n= 0;
+            for (Entry e : v) {
+                if ((e.dist != Router.GROUP_DIST) || !adj.containsKey(e.dest))
+                    aux[n++]= e;
+            }
+            a.setValue(aux);
+        }
+    }
+
+    /**
+     * Return the neighbour vector of a router
+     * @param name  router name
+     * @return Entry vector, or null if unknown
+     */
+    public Entry[] vec(char name) {
+        return adj.get(name);
+    }
+
+    /**
+     * Return the routers with a known neighbour vector
+     * @return set of router names
+     */
+    public Set<Character> nodes() {
+        return Collections.unmodifiableSet(adj.keySet());
+    }
+
+    /**
+     * Return the distance of the link from a router to a neighbour
+     * @param from  router name
+     * @param to    neighbour name
+     * @return distance, or Router.INFINITY if there is no link
+     */
+    public int link_dist(char from, char to) {
+        Entry[] v= adj.get(from);
+        if (v != null) {
+            for (Entry e : v) {
+                if (e.dest == to)
+                    return cost(e);
+            }
+        }
+        return Router.INFINITY;
+    }
+
+    /**
+     * Return the cost of a vector entry: its distance, or 0 for a group
+     * membership, so that the distance to a group is the distance to its
+     * nearest member
+     * @param e  vector entry
+     * @return cost
+     */
+    public static int cost(Entry e) {
+        return (e.dist == Router.GROUP_DIST) ? 0 : e.dist;
+    }
+
+    /**
+     * Run the Dijkstra algorithm from origin
+     * @param origin  name of the starting router
+     * @return routing table with the distance and the equal-cost first hops
+     *  to each reachable router; all entries are final
+     */
+    public RoutingTable spf(char origin) {
+        RoutingTable tab= new RoutingTable();
+        PriorityQueue<RouteEntry> tentative= new PriorityQueue<>(16,
+                new Comparator<RouteEntry>() {
+            public int compare(RouteEntry r1, RouteEntry r2) {
+                return Integer.compare(r1.dist, r2.dist);
+            }
+        });
+        RouteEntry re= new RouteEntry(origin, ' ', 0);
+        tab.add_route(re);
+        tentative.add(re);
+        while (!tentative.isEmpty()) {
+            RouteEntry node= tentative.poll();
+            if (node.is_final())
+                continue;   // Older entry, already replaced
+            node.set_final();
+            Entry[] v= adj.get(node.dest);
+            if (v == null)
+                continue;
+            for (Entry e : v) {
+                int d= Routing.add_dist(node.dist, cost(e));
+                if (d >= Router.INFINITY)
+                    continue;
+                char[] hops= (node.dest == origin) ? new char[] { e.dest } : node.next_hops;
+                RouteEntry old= tab.get_RouteEntry(e.dest);
+                if ((old != null) && !old.is_final() && (old.dist == d)) {
+                    old.add_next_hops(hops);    // Equal-cost path
+                    continue;
+                }
+                if ((old != null) && (old.is_final() || (old.dist < d)))
+                    continue;
+                RouteEntry ne= new RouteEntry(e.dest, hops, d);
+                if (old != null)
+                    old.set_final();    // Skipped when polled
+                tab.add_route(ne);
+                tentative.add(ne);
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * Run the Dijkstra algorithm from source and return one shortest path
+     * tree; among equal-cost paths the parent with the lowest name is
+     * chosen, so all routers build the same tree. Group memberships are 
+     * not part of the tree
+     * @param source  name of the root router
+     * @return the parent of each router reachable, other than source
+     */
+    public HashMap<Character, Character> spt(char source) {
+        HashMap<Character, Integer> dist = new HashMap<>();
+        HashMap<Character, Character> parent = new HashMap<>();
+        HashSet<Character> done = new HashSet<>();
+        PriorityQueue<long[]> tentative = new PriorityQueue<>(16,
+                new Comparator<long[]>() {
+            public int compare(long[] n1, long[] n2) {
+                return (n1[0] != n2[0]) ? Long.compare(n1[0], n2[0]) : Long.compare(n1[1], n2[1]);
+            }
+        });
+        dist.put(source, 0);
+        tentative.add(new long[] { 0, source });
+        while (!tentative.isEmpty()) {
+            char node = (char)tentative.poll()[1];
+            if (!done.add(node))
+                continue;   // Older entry, already replaced
+            Entry[] v = adj.get(node);
+            if (v == null)
+                continue;
+            int d_node = dist.get(node);
+            for (Entry e : v) {
+                if ((e.dist == Router.GROUP_DIST) || done.contains(e.dest))
+                    continue;
+                int d = Routing.add_dist(d_node, e.dist);
+                if (d >= Router.INFINITY)
+                    continue;
+                Integer old = dist.get(e.dest);
+                if ((old == null) || (d < old)) {
+                    dist.put(e.dest, d);
+                    parent.put(e.dest, node);
+                    tentative.add(new long[] { d, e.dest });
+                } else if ((d == old) && (node < parent.get(e.dest))) {
+                    parent.put(e.dest, node);   // Equal cost - lowest name
+                }
+            }
+        }
+        return parent;
+    }
+
+    /**
+     * Return the routers that announce membership of a group
+     * @param group  group address
+     * @return set of router names
+     */
+    public Set<Character> members(char group) {
+        HashSet<Character> aux = new HashSet<>();
+        for (Map.Entry<Character, Entry[]> n : adj.entrySet()) {
+            for (Entry e : n.getValue()) {
+                if ((e.dest == group) && (e.dist == Router.GROUP_DIST))
+                    aux.add(n.getKey());
+            }
+        }
+        return aux;
+    }
+
+    /**
+     * Return a copy of the topology without the link between two routers,
+     * in both directions; the vectors of the other routers are shared
+     * @param a  router name
+     * @param b  router name
+     * @return the new topology
+     */
+    public Topology without_link(char a, char b) {
+        HashMap<Character, Entry[]> aux = new HashMap<>(adj);
+        remove_dest(aux, a, b);
+        remove_dest(aux, b, a);
+        return new Topology(aux);
+    }
+
+    /**
+     * Return a copy of the topology without a router and its links; the
+     * vectors of the routers that are not its neighbours are shared
+     * @param name  router name
+     * @return the new topology
+     */
+    public Topology without_node(char name) {
+        HashMap<Character, Entry[]> aux = new HashMap<>(adj);
+        Entry[] v = aux.remove(name);
+        if (v != null) {
+            for (Entry e : v) {
+                remove_dest(aux, e.dest, name);
+            }
+        }
+        return new Topology(aux);
+    }
+
+    /**
+     * Replace the vector of a router by a copy without a destination
+     * @param aux   neighbour vector of each router
+     * @param from  router name
+     * @param to    destination removed
+     */
+    private static void remove_dest(HashMap<Character, Entry[]> aux, char from, char to) {
+        Entry[] v = aux.get(from);
+        if (v == null)
+            return;
+        ArrayList<Entry> list = new ArrayList<>(v.length);
+        for (Entry e : v) {
+            if (e.dest != to)
+                list.add(e);
+        }
+        aux.put(from, list.toArray(new Entry[list.size()]));
+    }
+
+    /**
+     * Return the key identifying the link from a router to a neighbour
+     * @param from  router name
+     * @param to    neighbour name
+     * @return link key
+     */
+    public static int link_key(char from, char to) {
+        return (from << 16) | to;
+    }
+
+    /**
+     * Run the Dijkstra algorithm from origin until dest is reached,
+     * avoiding some routers and links
+     * @param origin  name of the starting router
+     * @param dest    name of the destination router
+     * @param nodes   routers that cannot be used
+     * @param links   keys of the links that cannot be used (see link_key)
+     * @return the shortest path, or null if dest is not reachable
+     */
+    public Path shortest_path(char origin, char dest, Set<Character> nodes, Set<Integer> links) {
+        HashMap<Character, Integer> dist = new HashMap<>();
+        HashMap<Character, Character> prev = new HashMap<>();
+        HashSet<Character> done = new HashSet<>();
+        // Tentative routers, sorted by distance and then by name
+        PriorityQueue<long[]> tentative = new PriorityQueue<>(16,
+                new Comparator<long[]>() {
+            public int compare(long[] n1, long[] n2) {
+                return (n1[0] != n2[0]) ? Long.compare(n1[0], n2[0]) : Long.compare(n1[1], n2[1]);
+            }
+        });
+        dist.put(origin, 0);
+        tentative.add(new long[] { 0, origin });
+        while (!tentative.isEmpty()) {
+            char node = (char)tentative.poll()[1];
+            if (!done.add(node))
+                continue;   // Older entry, already replaced
+            int d_node = dist.get(node);
+            if (node == dest) {
+                StringBuilder sb = new StringBuilder();
+                for (char c = dest; c != origin; c = prev.get(c)) {
+                    sb.append(c);
+                }
+                sb.append(origin);
+                return new Path(sb.reverse().toString(), d_node);
+            }
+            Entry[] v = adj.get(node);
+            if (v == null)
+                continue;
+            for (Entry e : v) {
+                if (done.contains(e.dest) || nodes.contains(e.dest)
+                        || links.contains(link_key(node, e.dest)))
+                    continue;
+                int d = Routing.add_dist(d_node, cost(e));
+                if (d >= Router.INFINITY)
+                    continue;
+                Integer old = dist.get(e.dest);
+                if ((old != null) && (old <= d))
+                    continue;
+                dist.put(e.dest, d);
+                prev.put(e.dest, node);
+                tentative.add(new long[] { d, e.dest });
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compute the loop-free alternates (RFC 5286) of the routes in tab: for
+     * destination D the alternate is the neighbour N, other than the next
+     * hops, with dist(N,D) < dist(N,S) + dist(S,D) and the shortest path 
+     * through it
+     *
+     * @param origin name of the starting router (S)
+     * @param tab    routing table computed from origin with this topology
+     */
+    public void compute_lfa(char origin, RoutingTable tab) {
+        Entry[] nvec = vec(origin);
+        if ((nvec == null) || (nvec.length < 2)) {
+            return;     // No alternative neighbours
+        }
+        HashMap<Character, RoutingTable> from_neig = neighbours_spf(origin);
+        for (RouteEntry re : tab.get_routeset()) {
+            if (!re.has_next()) {
+                continue;   // Local node
+            }
+            int best = Router.INFINITY;
+            for (Entry n : nvec) {
+                if (re.is_next_hop(n.dest)) {
+                    continue;
+                }
+                int d_nd;    // dist(N,D)
+                int d_ns;    // dist(N,S)
+                if (n.dest == re.dest) {
+                    d_nd = 0;
+                    d_ns = 1;   // Direct link to D is always loop-free
+                } else {
+                    RoutingTable nt = from_neig.get(n.dest);
+                    if (nt == null) {
+                        continue;
+                    }
+                    RouteEntry nd = nt.get_RouteEntry(re.dest);
+                    RouteEntry ns = nt.get_RouteEntry(origin);
+                    if (nd == null) {
+                        continue;
+                    }
+                    d_nd = nd.dist;
+                    d_ns = (ns != null) ? ns.dist : Router.INFINITY;
+                }
+                if (d_nd >= Routing.add_dist(d_ns, re.dist)) {
+                    continue;   // N may send the packets back
+                }
+                int d = Routing.add_dist(cost(n), d_nd);
+                if (d < best) {
+                    best = d;
+                    re.alt_hop = n.dest;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the unequal-cost next hops of the routes in tab, in the style
+     * of EIGRP variance: neighbour N is used for destination D if it is
+     * feasible, dist(N,D) < dist(S,D), which keeps the paths loop-free,
+     * and if the path through it costs at most variance times the best. 
+     * The next hops are stored in a weighted selection table, where each 
+     * one appears in proportion to the inverse of its path cost
+     *
+     * @param origin   name of the starting router (S)
+     * @param tab      routing table computed from origin with this topology
+     * @param variance maximum ratio to the best path cost
+     */
+    public void compute_variance(char origin, RoutingTable tab, int variance) {
+        Entry[] nvec = vec(origin);
+        if ((nvec == null) || (variance <= 1)) {
+            return;
+        }
+        HashMap<Character, RoutingTable> from_neig = neighbours_spf(origin);
+        for (RouteEntry re : tab.get_routeset()) {
+            if (!re.has_next()) {
+                continue;   // Local node
+            }
+            long max = (long)variance * re.dist;
+            ArrayList<Character> hops = new ArrayList<>();
+            ArrayList<Integer> costs = new ArrayList<>();
+            for (Entry n : nvec) {
+                int d_nd;    // dist(N,D)
+                if (n.dest == re.dest) {
+                    d_nd = 0;
+                } else {
+                    RoutingTable nt = from_neig.get(n.dest);
+                    RouteEntry nd = (nt != null) ? nt.get_RouteEntry(re.dest) : null;
+                    if (nd == null) {
+                        continue;
+                    }
+                    d_nd = nd.dist;
+                }
+                int d = Routing.add_dist(cost(n), d_nd);
+                if ((d_nd < re.dist) && (d <= max)) {
+                    hops.add(n.dest);
+                    costs.add(d);
+                }
+            }
+            if (hops.size() < 2) {
+                continue;
+            }
+            // Slots in proportion to 1/cost, at least one for each next hop
+            double sum = 0;
+            for (int c : costs) {
+                sum += 1.0 / c;
+            }
+            int n_slots = Math.max(WEIGHT_SLOTS, hops.size());
+            ArrayList<Character> table = new ArrayList<>();
+            for (int i = 0; i < hops.size(); i++) {
+                long cnt = Math.max(1, Math.round(n_slots / (costs.get(i) * sum)));
+                for (long j = 0; j < cnt; j++) {
+                    table.add(hops.get(i));
+                }
+            }
+            re.wtable = new char[table.size()];
+            for (int i = 0; i < re.wtable.length; i++) {
+                re.wtable[i] = table.get(i);
+            }
+        }
+    }
+
+    /**
+     * Return the shortest paths from each neighbour of origin; the result of
+     * the last origin is kept, as the topology does not change
+     * @param origin  router name
+     * @return routing table computed from each neighbour
+     */
+    private synchronized HashMap<Character, RoutingTable> neighbours_spf(char origin) {
+        if ((neig_spf != null) && (neig_spf_origin == origin)) {
+            return neig_spf;
+        }
+        HashMap<Character, RoutingTable> from_neig = new HashMap<>();
+        Entry[] nvec = vec(origin);
+        if (nvec != null) {
+            for (Entry n : nvec) {
+                if (vec(n.dest) != null) {
+                    from_neig.put(n.dest, spf(n.dest));
+                }
+            }
+        }
+        neig_spf_origin = origin;
+        neig_spf = from_neig;
+        return from_neig;
+    }
+}
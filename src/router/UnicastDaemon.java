@@ -13,6 +13,8 @@ package router;
 
 import java.io.*;
 import java.net.*;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /** 
  * Thread that handles socket events 
@@ -21,32 +23,53 @@ public class UnicastDaemon extends Thread {
         volatile boolean keepRunning= true;
         Router win;
         DatagramSocket ds;
+        /** BFD thread that handles the probes, or null if not running */
+        BfdDaemon bfd;
+        /** Packets received, waiting to be processed by the worker */
+        private final LinkedBlockingQueue<DatagramPacket> pending= 
+                new LinkedBlockingQueue<>(MAX_PENDING);
+        /** Thread that processes the packets received */
+        private final Thread worker;
+        /** Maximum number of packets waiting to be processed */
+        public final static int MAX_PENDING= 1024;
         
         // Constructor
-        UnicastDaemon(Router win, DatagramSocket ds) {
+        UnicastDaemon(Router win, DatagramSocket ds, BfdDaemon bfd) {
             this.win= win;
             this.ds= ds;
+            this.bfd= bfd;
+            this.worker= new Thread(new Runnable() {
+                public void run() {
+                    process_pending();
+                }
+            }, "UnicastWorker");
+            worker.setDaemon(true);
         }
         
         // Thread main function
         @Override
         public void run() {
+            worker.start();
             byte [] buf= new byte[8096];
             DatagramPacket dp= new DatagramPacket(buf, buf.length);
             try {
                 while (keepRunning) {
                     try {
                         ds.receive(dp);
-                        ByteArrayInputStream BAis= 
-                            new ByteArrayInputStream(buf, 0, dp.getLength());
-                        DataInputStream dis= new DataInputStream(BAis);
                         System.out.println("Received packet ("+dp.getLength()+
-                            ") from " + dp.getAddress().getHostAddress() +
+                            ") from " + Resolver.host_address(dp.getAddress()) +
                             ":" +dp.getPort());
-                        
-                        synchronized (this) {
-                            win.process_packet(dp, dis);
+                        DatagramPacket copy= new DatagramPacket(
+                            Arrays.copyOf(buf, dp.getLength()), dp.getLength(), 
+                            dp.getSocketAddress());
+                        if ((dp.getLength() > 0) && (buf[0] == Router.PKT_BFD)) {
+                            // BFD probes do not wait for the routing processing
+                            if (bfd != null)
+                                bfd.receive(copy);
+                            continue;
                         }
+                        if (!pending.offer(copy))
+                            win.Log2("Receive queue full - packet dropped\n");
                     }
                     catch (SocketException se) {
                         if (keepRunning)
@@ -60,9 +83,30 @@ public class UnicastDaemon extends Thread {
             }
         }
         
+        /**
+         * Worker thread main function: process the packets received
+         */
+        private void process_pending() {
+            while (keepRunning) {
+                DatagramPacket dp;
+                try {
+                    dp= pending.take();
+                }
+                catch (InterruptedException e) {
+                    continue;   // Stopped
+                }
+                DataInputStream dis= new DataInputStream(
+                    new ByteArrayInputStream(dp.getData(), 0, dp.getLength()));
+                synchronized (this) {
+                    win.process_packet(dp, dis);
+                }
+            }
+        }
+        
         // Stops thread
         public void stopRunning() {
             keepRunning= false;
+            worker.interrupt();
         }
     
 }
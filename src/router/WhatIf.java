@@ -0,0 +1,157 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2019/2020
+ *
+ * WhatIf.java
+ *
+ * Simulation of link and router failures over a topology snapshot
+ *
+ * Created on October 19, 2026
+ * @author  agent
+ */
+package router;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+
+/**
+ * Runs failure scenarios over a copy of the topology, without changing the
+ * routing state, and returns the routes of the origin that change
+ */
+public class WhatIf {
+
+    /**
+     * Set of hypothetical failures
+     */
+    public static class Scenario {
+        /** Links that fail, as pairs of routers */
+        private final ArrayList<char[]> links= new ArrayList<>();
+        /** Routers that fail */
+        private final ArrayList<Character> nodes= new ArrayList<>();
+
+        /**
+         * Add the failure of the link between two routers, in both directions
+         * @param a  router name
+         * @param b  router name
+         * @return this scenario
+         */
+        public Scenario link_down(char a, char b) {
+            links.add(new char[] { a, b });
+            return this;
+        }
+
+        /**
+         * Add the failure of a router
+         * @param name  router name
+         * @return this scenario
+         */
+        public Scenario node_down(char name) {
+            nodes.add(name);
+            return this;
+        }
+
+        /**
+         * Return a string with the failures
+         * @return string with the failures
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb= new StringBuilder();
+            for (char[] l : links) {
+                sb.append(sb.length()>0 ? " " : "").append(Router.name_str(l[0]))
+                  .append('-').append(Router.name_str(l[1]));
+            }
+            for (char n : nodes) {
+                sb.append(sb.length()>0 ? " " : "").append(Router.name_str(n));
+            }
+            return sb.toString();
+        }
+    }
+
+    /** Topology without failures */
+    private final Topology topo;
+    /** Router whose routes are simulated */
+    private final char origin;
+    /** Routes of origin without failures */
+    private final RoutingTable base;
+
+    /**
+     * Constructor - create a new instance of WhatIf
+     * @param topo    topology snapshot
+     * @param origin  router whose routes are simulated
+     */
+    public WhatIf(Topology topo, char origin) {
+        this.topo= topo;
+        this.origin= origin;
+        this.base= topo.spf(origin);
+    }
+
+    /**
+     * Return the routes of origin without failures
+     * @return routing table
+     */
+    public RoutingTable base_table() {
+        return base;
+    }
+
+    /**
+     * Run a scenario
+     * @param s  scenario
+     * @return the routes that change
+     */
+    public RouteDiff run(Scenario s) {
+        if (!affects_spf(s)) {
+            return new RouteDiff();     // No shortest path uses the failures
+        }
+        Topology t= topo;
+        for (char[] l : s.links) {
+            t= t.without_link(l[0], l[1]);
+        }
+        for (char n : s.nodes) {
+            t= t.without_node(n);
+        }
+        return RouteDiff.diff(base, t.spf(origin));
+    }
+
+    /**
+     * Run several scenarios in parallel
+     * @param list  scenarios
+     * @return the routes that change in each scenario, in the same order
+     */
+    public List<RouteDiff> run_all(List<Scenario> list) {
+        return list.parallelStream().map(this::run).collect(Collectors.toList());
+    }
+
+    /**
+     * Check if the failures may change the shortest paths of origin: a link
+     * matters if it is in a shortest path; a router if it is reachable
+     * @param s  scenario
+     * @return false if the routes stay the same
+     */
+    private boolean affects_spf(Scenario s) {
+        for (char n : s.nodes) {
+            if (base.get_RouteEntry(n) != null)
+                return true;
+        }
+        for (char[] l : s.links) {
+            if (in_spf(l[0], l[1]) || in_spf(l[1], l[0]))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if the link from a to b is in a shortest path from origin
+     * @param a  router name
+     * @param b  router name
+     * @return true if it is used
+     */
+    private boolean in_spf(char a, char b) {
+        RouteEntry ra= base.get_RouteEntry(a);
+        RouteEntry rb= base.get_RouteEntry(b);
+        if ((ra == null) || (rb == null))
+            return false;
+        return Routing.add_dist(ra.dist, topo.link_dist(a, b)) == rb.dist;
+    }
+}